@@ -1,22 +1,42 @@
 package ca.concordia;
 
+import ca.concordia.cluster.ClusterClient;
+import ca.concordia.cluster.ConsistentHashRing;
+
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.Arrays;
 import java.util.Scanner;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
 
 // Press Shift twice to open the Search Everywhere dialog and type `show whitespaces`,
 // then press Enter. You can now see whitespace characters in your code.
 public class Main {
     public static void main(String[] args) {
+        // --tls: connect with TLS (trust store via -Djavax.net.ssl.trustStore=...)
+        SocketFactory socketFactory = SocketFactory.getDefault();
+        if (args.length > 0 && args[0].equals("--tls")) {
+            socketFactory = SSLSocketFactory.getDefault();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        // Cluster mode: Main [--tls] host1:port1 host2:port2 ...
+        if (args.length > 0) {
+            runCluster(args, socketFactory);
+            return;
+        }
+
         //Socket CLient
         System.out.println("Hello and welcome!");
         Scanner scanner = new Scanner(System.in);
 
         try{
-            Socket clientSocket = new Socket("localhost", 12345);
+            Socket clientSocket = socketFactory.createSocket("localhost", 12345);
             System.out.println("Connected to the server at localhost:12345");
 
             //read user input from console
@@ -25,12 +45,20 @@ public class Main {
                     BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
                     PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)
             ) {
+                boolean watching = false;
                 while (userInput != null && !userInput.isEmpty() && !userInput.equalsIgnoreCase("exit") && !userInput.equalsIgnoreCase("quit")) {
                     writer.println(userInput);
                     System.out.println("Message sent to the server: " + userInput);
-                    //get response
-                    String response = reader.readLine();
-                    System.out.println("Response from server: " + response);
+                    if (!watching) {
+                        //get response
+                        String response = reader.readLine();
+                        System.out.println("Response from server: " + response);
+                        // after WATCH the server pushes events at any time: print lines as they come
+                        if (response != null && response.startsWith("SUCCESS: Watching")) {
+                            watching = true;
+                            startEventPrinter(reader);
+                        }
+                    }
 
                     userInput = scanner.nextLine(); // Read next line
                 }
@@ -49,4 +77,56 @@ public class Main {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    // Prints every line the server sends once the connection carries WATCH events
+    private static void startEventPrinter(BufferedReader reader) {
+        Thread printer = new Thread(() -> {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    System.out.println((line.startsWith("EVENT ") ? "Event from server: " : "Response from server: ") + line);
+                }
+            } catch (IOException ignored) {
+                // socket closed on exit
+            }
+        });
+        printer.setDaemon(true);
+        printer.start();
+    }
+
+    // Same console loop, but every command is routed to the node owning its filename.
+    // Extra console commands: JOIN host:port / LEAVE host:port (rebalances the cluster).
+    private static void runCluster(String[] nodes, SocketFactory socketFactory) {
+        System.out.println("Hello and welcome! Cluster: " + Arrays.toString(nodes));
+        Scanner scanner = new Scanner(System.in);
+
+        try (ClusterClient client = new ClusterClient(Arrays.asList(nodes),
+                ConsistentHashRing.DEFAULT_VIRTUAL_NODES, socketFactory)) {
+            String userInput = scanner.nextLine();
+            while (userInput != null && !userInput.isEmpty() && !userInput.equalsIgnoreCase("exit") && !userInput.equalsIgnoreCase("quit")) {
+                String[] parts = userInput.trim().split(" ");
+                String response;
+                try {
+                    if (parts[0].equalsIgnoreCase("JOIN") && parts.length == 2) {
+                        response = "SUCCESS: " + client.addNode(parts[1]) + " file(s) moved to " + parts[1];
+                    } else if (parts[0].equalsIgnoreCase("LEAVE") && parts.length == 2) {
+                        response = "SUCCESS: " + client.removeNode(parts[1]) + " file(s) moved off " + parts[1];
+                    } else {
+                        response = client.send(userInput);
+                    }
+                } catch (IOException e) {
+                    // e.g. a WRITE whose reply was lost: it may or may not have run
+                    response = "ERROR: " + e.getMessage();
+                }
+                System.out.println("Response from cluster: " + response);
+
+                userInput = scanner.nextLine(); // Read next line
+            }
+            System.out.println("Connection closed.");
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            scanner.close();
+        }
+    }
+}
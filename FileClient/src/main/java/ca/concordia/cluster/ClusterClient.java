@@ -0,0 +1,616 @@
+package ca.concordia.cluster;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.net.SocketFactory;
+
+// Client library for a cluster of FileServer nodes.
+// Filenames are partitioned over the nodes with a ConsistentHashRing, and every command is sent
+// straight to the node that owns its filename (no proxy hop). LIST is fanned out to all nodes
+// with the same arguments, and their sorted pages are merged into one page.
+//
+// When a node joins or leaves, the files whose owner changes are moved to their new owner
+// (READ + CREATE + WRITE + DELETE) before the new ring is used for routing. Routing from this
+// client is paused while that happens; other clients should be pointed at the new node list
+// once the rebalance has finished.
+//
+// Each file moves on its own: a failed step undoes that file's copy, and a file that has been
+// moved is routed to its new node straight away. If a rebalance stops half way, the ring stays
+// as it was but every file is still reachable, and running the same JOIN/LEAVE again moves the
+// rest.
+//
+// WATCH/UNWATCH are refused: a watching connection only carries events, so it has to be a
+// separate connection to a single node rather than one of the routed ones.
+//
+// SNAPSHOT CREATE/LIST/DROP go to every node. The nodes number their snapshots on their own,
+// so this client hands out its own cluster-wide ids and remembers each node's id for them;
+// those ids only mean something to this ClusterClient. READ name@id is routed by name and
+// asks the owner for its snapshot first, then the other nodes (the file may have moved since
+// the snapshot was taken). A cluster snapshot is taken node by node, not atomically, but no
+// rebalance from this client runs while it is taken. SNAPSHOT EXPORT writes one image per
+// node and is refused; export on the nodes themselves.
+//
+// Connections are made with the given SocketFactory; pass SSLSocketFactory.getDefault() for
+// servers running with --tls (reconnects then resume their TLS session).
+//
+// A lost connection is retried once for READ, LIST and STAT only. Any other command may already
+// have run, so its IOException goes to the caller (the next command reconnects).
+public class ClusterClient implements Closeable {
+
+    private volatile ConsistentHashRing ring;
+    // filename -> node, for files moved by a rebalance that has not finished (yet)
+    private final Map<String, String> relocated = new ConcurrentHashMap<>();
+    private final SocketFactory socketFactory;
+    // one persistent connection per node, opened on first use
+    private final Map<String, NodeConnection> connections = new ConcurrentHashMap<>();
+    // routing (read) vs. rebalancing and taking snapshots (write)
+    private final ReentrantReadWriteLock topologyLock = new ReentrantReadWriteLock();
+    // cluster snapshot id -> (node -> that node's snapshot id)
+    private final Map<Integer, Map<String, Integer>> snapshots = new ConcurrentSkipListMap<>();
+    private final AtomicInteger nextSnapshotId = new AtomicInteger(1);
+
+    public ClusterClient(Collection<String> nodes) {
+        this(nodes, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ClusterClient(Collection<String> nodes, int virtualNodes) {
+        this(nodes, virtualNodes, SocketFactory.getDefault());
+    }
+
+    public ClusterClient(Collection<String> nodes, int virtualNodes, SocketFactory socketFactory) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Cluster needs at least one node.");
+        }
+        this.ring = new ConsistentHashRing(nodes, virtualNodes);
+        this.socketFactory = socketFactory;
+    }
+
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    public String ownerOf(String filename) {
+        String node = relocated.get(filename);
+        return (node != null) ? node : ring.ownerOf(filename);
+    }
+
+    // Sends one raw protocol line to the right node(s) and returns the single-line response
+    public String send(String line) throws IOException {
+        String trimmed = line.trim();
+        String[] parts = trimmed.split(" ", 3);
+        String command = parts[0].toUpperCase();
+
+        if (command.equals("LIST")) {
+            return list(trimmed.substring(command.length()).trim());
+        }
+        if (command.equals("QUIT")) {
+            return "SUCCESS: Disconnecting.";
+        }
+        if (command.equals("WATCH") || command.equals("UNWATCH")) {
+            return "ERROR: WATCH needs its own connection to a single node";
+        }
+        if (command.equals("SNAPSHOT")) {
+            return snapshot(trimmed.substring(command.length()).trim());
+        }
+        if (parts.length < 2) {
+            // nothing to route on; any node gives the same error back
+            return sendTo(ring.getNodes().get(0), trimmed);
+        }
+        int at = parts[1].lastIndexOf('@');
+        if (command.equals("READ") && at >= 0) {
+            return readSnapshot(parts[1].substring(0, at), parts[1].substring(at + 1));
+        }
+
+        topologyLock.readLock().lock();
+        try {
+            return sendTo(ownerOf(parts[1]), trimmed);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    // SNAPSHOT [CREATE|LIST|DROP <id>] over the whole cluster, answered like a single node
+    public String snapshot(String arguments) throws IOException {
+        String[] args = arguments.isEmpty() ? new String[0] : arguments.split(" +");
+        String action = (args.length >= 1) ? args[0].toUpperCase() : "CREATE";
+
+        switch (action) {
+            case "CREATE":
+                return createSnapshot();
+            case "LIST":
+                return listSnapshots();
+            case "DROP":
+                return dropSnapshot((args.length >= 2) ? args[1] : "");
+            case "EXPORT":
+                return "ERROR: SNAPSHOT EXPORT writes one image per node; run it on each node";
+            default:
+                return "ERROR: usage: SNAPSHOT [CREATE|LIST|DROP <id>]";
+        }
+    }
+
+    // Snapshots every node; if one fails, the snapshots already taken are dropped again
+    private String createSnapshot() throws IOException {
+        topologyLock.writeLock().lock();
+        try {
+            Map<String, Integer> nodeIds = new ConcurrentHashMap<>();
+            try {
+                for (String node : allNodes()) {
+                    String response = sendTo(node, "SNAPSHOT CREATE");
+                    int id = snapshotIdIn(response);
+                    if (id < 0) {
+                        dropOnNodes(nodeIds);
+                        return response.startsWith("ERROR") ? response : "ERROR: unexpected reply from " + node + ": " + response;
+                    }
+                    nodeIds.put(node, id);
+                }
+            } catch (IOException e) {
+                try {
+                    dropOnNodes(nodeIds);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+
+            int id = nextSnapshotId.getAndIncrement();
+            snapshots.put(id, nodeIds);
+            return "SUCCESS: Snapshot " + id + " created.";
+        } finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    // "id:STATE ..." for this client's snapshots; the state is the least finished one of its nodes
+    private String listSnapshots() throws IOException {
+        topologyLock.readLock().lock();
+        try {
+            // node -> (node's snapshot id -> export state)
+            Map<String, Map<Integer, String>> states = new TreeMap<>();
+            for (String node : allNodes()) {
+                String response = sendTo(node, "SNAPSHOT LIST");
+                if (response.startsWith("ERROR")) {
+                    return response;
+                }
+                Map<Integer, String> nodeStates = new TreeMap<>();
+                for (String entry : response.trim().split(" ")) {
+                    int colon = entry.indexOf(':');
+                    if (colon > 0) {
+                        nodeStates.put(Integer.parseInt(entry.substring(0, colon)), entry.substring(colon + 1));
+                    }
+                }
+                states.put(node, nodeStates);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Integer, Map<String, Integer>> snapshot : snapshots.entrySet()) {
+                String state = null;
+                for (Map.Entry<String, Integer> nodeId : snapshot.getValue().entrySet()) {
+                    String nodeState = states.getOrDefault(nodeId.getKey(), Map.of()).get(nodeId.getValue());
+                    if (nodeState != null && (state == null || exportRank(nodeState) < exportRank(state))) {
+                        state = nodeState;
+                    }
+                }
+                if (state != null) {
+                    if (sb.length() > 0) sb.append(" ");
+                    sb.append(snapshot.getKey()).append(':').append(state);
+                }
+            }
+            return sb.toString();
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    private static int exportRank(String state) {
+        switch (state) {
+            case "FAILED": return 0;
+            case "EXPORTING": return 1;
+            case "NONE": return 2;
+            default: return 3; // EXPORTED
+        }
+    }
+
+    private String dropSnapshot(String idText) throws IOException {
+        int id = parseSnapshotId(idText);
+        if (id < 0) {
+            return "ERROR: invalid snapshot id";
+        }
+        topologyLock.readLock().lock();
+        try {
+            Map<String, Integer> nodeIds = snapshots.remove(id);
+            if (nodeIds == null) {
+                return "ERROR: snapshot " + id + " does not exist";
+            }
+            String error = dropOnNodes(nodeIds);
+            return (error != null) ? error : "SUCCESS: Snapshot " + id + " dropped.";
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    // Drops each node's snapshot; returns the first error, or null
+    private String dropOnNodes(Map<String, Integer> nodeIds) throws IOException {
+        String error = null;
+        for (Map.Entry<String, Integer> nodeId : nodeIds.entrySet()) {
+            String response = sendTo(nodeId.getKey(), "SNAPSHOT DROP " + nodeId.getValue());
+            if (response.startsWith("ERROR") && error == null) {
+                error = response;
+            }
+        }
+        return error;
+    }
+
+    // READ name@id: the owner's snapshot first, then the other nodes of the snapshot
+    private String readSnapshot(String filename, String idText) throws IOException {
+        int id = parseSnapshotId(idText);
+        if (id < 0) {
+            return "ERROR: invalid snapshot id";
+        }
+        Map<String, Integer> nodeIds = snapshots.get(id);
+        if (nodeIds == null) {
+            return "ERROR: snapshot " + id + " does not exist";
+        }
+
+        topologyLock.readLock().lock();
+        try {
+            List<String> candidates = new ArrayList<>(nodeIds.keySet());
+            String owner = ownerOf(filename);
+            if (candidates.remove(owner)) {
+                candidates.add(0, owner);
+            }
+            for (String node : candidates) {
+                String response = sendTo(node, "READ " + filename + "@" + nodeIds.get(node));
+                if (!response.startsWith("ERROR")) {
+                    return response;
+                }
+            }
+            return "ERROR: file " + filename + " does not exist in snapshot " + id;
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    // The id in "SUCCESS: Snapshot <id> created.", or -1
+    private static int snapshotIdIn(String response) {
+        String[] words = response.split(" ");
+        return (response.startsWith("SUCCESS: Snapshot ") && words.length >= 3) ? parseSnapshotId(words[2]) : -1;
+    }
+
+    // Non-negative snapshot id, or -1 when the text is not one
+    private static int parseSnapshotId(String text) {
+        try {
+            return Math.max(-1, Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public String create(String filename) throws IOException {
+        return send("CREATE " + filename);
+    }
+
+    public String write(String filename, String content) throws IOException {
+        return send("WRITE " + filename + " " + content);
+    }
+
+    public String read(String filename) throws IOException {
+        return send("READ " + filename);
+    }
+
+    public String delete(String filename) throws IOException {
+        return send("DELETE " + filename);
+    }
+
+    // Union of every node's LIST, in one line like a single server would answer
+    public String list() throws IOException {
+        return list("");
+    }
+
+    // LIST [-l] [prefix] [cursor] [limit] over the whole cluster. Every node is asked for the
+    // same page; the first limit names of the merged, sorted pages are the cluster's page, and
+    // NEXT=<last name> is added when any node (or the merge) has more.
+    public String list(String arguments) throws IOException {
+        String[] args = arguments.isEmpty() ? new String[0] : arguments.split(" +");
+        int pos = (args.length > 0 && args[0].equals("-l")) ? 1 : 0;
+        int limit = Integer.MAX_VALUE;
+        if (args.length > pos + 2) {
+            try {
+                limit = Integer.parseInt(args[pos + 2]);
+            } catch (NumberFormatException e) {
+                limit = 0;
+            }
+            if (limit <= 0) {
+                return "ERROR: invalid limit";
+            }
+        }
+
+        topologyLock.readLock().lock();
+        try {
+            // name -> entry as listed ("name" or "name:size"); also drops the stale copy a
+            // half finished move may have left on its source node
+            TreeMap<String, String> merged = new TreeMap<>();
+            boolean more = false;
+            for (String node : allNodes()) {
+                String response = sendTo(node, ("LIST " + arguments).trim());
+                if (response.startsWith("ERROR")) {
+                    return response;
+                }
+                for (String entry : response.trim().split(" ")) {
+                    if (entry.startsWith("NEXT=")) {
+                        more = true;
+                    } else if (!entry.isEmpty()) {
+                        int colon = entry.lastIndexOf(':');
+                        merged.put((pos == 1 && colon > 0) ? entry.substring(0, colon) : entry, entry);
+                    }
+                }
+            }
+
+            StringBuilder sb = new StringBuilder();
+            String last = null;
+            int count = 0;
+            for (Map.Entry<String, String> entry : merged.entrySet()) {
+                if (count == limit) {
+                    more = true;
+                    break;
+                }
+                if (sb.length() > 0) sb.append(" ");
+                sb.append(entry.getValue());
+                last = entry.getKey();
+                count++;
+            }
+            if (more && last != null) {
+                if (sb.length() > 0) sb.append(" ");
+                sb.append("NEXT=").append(last);
+            }
+            return sb.toString();
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    // Adds a node and moves over the files it now owns. Returns the number of files moved.
+    public int addNode(String node) throws IOException {
+        topologyLock.writeLock().lock();
+        try {
+            if (ring.getNodes().contains(node)) {
+                return 0;
+            }
+            ConsistentHashRing next = ring.copy();
+            next.addNode(node);
+
+            int moved = 0;
+            for (String source : ring.getNodes()) {
+                moved += migrate(source, next);
+            }
+            switchTo(next);
+            return moved;
+        } finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    // Drains a node's files to their new owners and removes it. Returns the number of files moved.
+    public int removeNode(String node) throws IOException {
+        topologyLock.writeLock().lock();
+        try {
+            if (!ring.getNodes().contains(node)) {
+                return 0;
+            }
+            if (ring.getNodes().size() == 1) {
+                throw new IllegalStateException("Cannot remove the last node of the cluster.");
+            }
+            ConsistentHashRing next = ring.copy();
+            next.removeNode(node);
+
+            int moved = migrate(node, next);
+            switchTo(next);
+            // its snapshots leave the cluster with it
+            for (Map<String, Integer> nodeIds : snapshots.values()) {
+                nodeIds.remove(node);
+            }
+
+            NodeConnection connection = connections.remove(node);
+            if (connection != null) {
+                connection.close();
+            }
+            return moved;
+        } finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    // Moves every file on source that is owned by another node under the target ring
+    private int migrate(String source, ConsistentHashRing target) throws IOException {
+        int moved = 0;
+        for (String name : listNode(source)) {
+            String owner = target.ownerOf(name);
+            if (owner.equals(source)) {
+                continue;
+            }
+            move(name, source, owner);
+            relocated.put(name, owner);
+            moved++;
+        }
+        return moved;
+    }
+
+    // Copies one file to owner and deletes it from source. If any step fails before the source
+    // copy is gone, the copy on owner is deleted again so the file only lives on source.
+    private void move(String name, String source, String owner) throws IOException {
+        String content = sendTo(source, "READ " + name);
+        if (content.startsWith("ERROR")) {
+            throw new IOException("Rebalance failed reading '" + name + "' from " + source + ": " + content);
+        }
+
+        String created = sendTo(owner, "CREATE " + name);
+        if (created.startsWith("ERROR")) {
+            throw new IOException("Rebalance failed creating '" + name + "' on " + owner + ": " + created);
+        }
+        try {
+            if (!content.isEmpty()) {
+                String written = sendTo(owner, "WRITE " + name + " " + content);
+                if (written.startsWith("ERROR")) {
+                    throw new IOException("Rebalance failed writing '" + name + "' on " + owner + ": " + written);
+                }
+            }
+        } catch (IOException e) {
+            undoCopy(name, owner, e);
+            throw e;
+        }
+
+        String deleted;
+        try {
+            deleted = sendTo(source, "DELETE " + name);
+        } catch (IOException e) {
+            // the DELETE may or may not have happened: keep the complete copy on owner and
+            // route there, a stale copy on source is only a leftover
+            relocated.put(name, owner);
+            throw new IOException("Rebalance lost the connection deleting '" + name + "' from " + source
+                    + "; it now lives on " + owner + " and may still be listed on " + source, e);
+        }
+        if (deleted.startsWith("ERROR")) {
+            IOException e = new IOException("Rebalance failed deleting '" + name + "' from " + source + ": " + deleted);
+            undoCopy(name, owner, e);
+            throw e;
+        }
+    }
+
+    private void undoCopy(String name, String owner, IOException cause) {
+        try {
+            String response = sendTo(owner, "DELETE " + name);
+            if (response.startsWith("ERROR")) {
+                cause.addSuppressed(new IOException("Could not undo the copy of '" + name + "' on " + owner + ": " + response));
+            }
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    // Routes by the new ring; files that now sit where it says need no override any more
+    private void switchTo(ConsistentHashRing next) {
+        ring = next;
+        relocated.entrySet().removeIf(e -> next.ownerOf(e.getKey()).equals(e.getValue()));
+    }
+
+    // Ring nodes plus nodes that only hold files of an unfinished rebalance
+    private List<String> allNodes() {
+        List<String> nodes = ring.getNodes();
+        for (String node : relocated.values()) {
+            if (!nodes.contains(node)) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private List<String> listNode(String node) throws IOException {
+        String response = sendTo(node, "LIST");
+        List<String> names = new ArrayList<>();
+        if (response == null || response.startsWith("ERROR")) {
+            return names;
+        }
+        for (String name : response.trim().split(" ")) {
+            if (!name.isBlank()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private String sendTo(String node, String line) throws IOException {
+        NodeConnection connection = connections.computeIfAbsent(node, n -> new NodeConnection(n, socketFactory));
+        return connection.send(line);
+    }
+
+    @Override
+    public void close() {
+        for (NodeConnection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    // Persistent, lazily (re)opened connection to one node; one request in flight at a time
+    private static class NodeConnection {
+        private final String host;
+        private final int port;
+        private final SocketFactory socketFactory;
+        private Socket socket;
+        private BufferedReader reader;
+        private PrintWriter writer;
+
+        NodeConnection(String node, SocketFactory socketFactory) {
+            int colon = node.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Node must be host:port, got '" + node + "'");
+            }
+            this.host = node.substring(0, colon);
+            this.port = Integer.parseInt(node.substring(colon + 1));
+            this.socketFactory = socketFactory;
+        }
+
+        synchronized String send(String line) throws IOException {
+            try {
+                return exchange(line);
+            } catch (IOException e) {
+                // the next command gets a fresh connection either way
+                close();
+                if (!isReadOnly(line)) {
+                    // the command may have run before the reply was lost; running it again could
+                    // e.g. write twice, so the caller has to find out what happened
+                    throw e;
+                }
+                // the server may have dropped an idle connection; retry once on a fresh one
+                return exchange(line);
+            }
+        }
+
+        private static boolean isReadOnly(String line) {
+            int space = line.indexOf(' ');
+            String command = ((space < 0) ? line : line.substring(0, space)).toUpperCase();
+            return command.equals("READ") || command.equals("LIST") || command.equals("STAT");
+        }
+
+        private String exchange(String line) throws IOException {
+            if (socket == null) {
+                socket = socketFactory.createSocket(host, port);
+                reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            }
+            writer.println(line);
+            if (writer.checkError()) {
+                throw new IOException("Connection to " + host + ":" + port + " lost");
+            }
+            String response = reader.readLine();
+            if (response == null) {
+                throw new IOException("Connection to " + host + ":" + port + " closed");
+            }
+            return response;
+        }
+
+        synchronized void close() {
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException ignored) {
+            } finally {
+                socket = null;
+                reader = null;
+                writer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ca.concordia.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Consistent-hash ring over server nodes ("host:port").
+// Every node is placed on the ring many times (virtual nodes) so that the filename space is
+// split evenly and only ~1/N of the files move when a node joins or leaves.
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int virtualNodes;
+    // ring position -> node
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes = new ArrayList<>();
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Need at least one virtual node per node.");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        this(virtualNodes);
+        for (String node : nodes) {
+            add(node);
+        }
+    }
+
+    public synchronized void addNode(String node) {
+        add(node);
+    }
+
+    private void add(String node) {
+        if (nodes.contains(node)) {
+            return;
+        }
+        nodes.add(node);
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(node + "#" + i), node);
+        }
+    }
+
+    public synchronized void removeNode(String node) {
+        if (!nodes.remove(node)) {
+            return;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.remove(hash(node + "#" + i), node);
+        }
+    }
+
+    // The node that owns the given filename: first virtual node clockwise from its hash
+    public synchronized String ownerOf(String filename) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("Cluster has no nodes.");
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(filename));
+        if (entry == null) {
+            entry = ring.firstEntry(); // wrap around
+        }
+        return entry.getValue();
+    }
+
+    public synchronized List<String> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    public synchronized ConsistentHashRing copy() {
+        return new ConsistentHashRing(nodes, virtualNodes);
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    // First 8 bytes of the MD5 digest; MD5 is only used here for its spread, not for security
+    static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xFF);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
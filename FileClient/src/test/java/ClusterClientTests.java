@@ -0,0 +1,225 @@
+import ca.concordia.cluster.ClusterClient;
+import helpers.FakeNode;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterClientTests {
+
+    private final List<FakeNode> nodes = new ArrayList<>();
+
+    private FakeNode startNode() throws IOException {
+        FakeNode node = new FakeNode();
+        nodes.add(node);
+        return node;
+    }
+
+    private FakeNode nodeAt(String address) {
+        for (FakeNode node : nodes) {
+            if (node.address().equals(address)) return node;
+        }
+        throw new AssertionError("no node " + address);
+    }
+
+    private static void createFiles(ClusterClient client, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            assertTrue(client.create("f" + i).startsWith("SUCCESS"));
+            assertTrue(client.write("f" + i, "data" + i).startsWith("SUCCESS"));
+        }
+    }
+
+    // every file is readable through the client and lives on exactly one node
+    private void assertAllFilesReachable(ClusterClient client, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            String name = "f" + i;
+            assertEquals("data" + i, client.read(name));
+            int copies = 0;
+            for (FakeNode node : nodes) {
+                if (node.names().contains(name)) copies++;
+            }
+            assertEquals(1, copies, name + " copies");
+        }
+        assertEquals(count, client.list().split(" ").length);
+    }
+
+    @AfterEach
+    void stopNodes() throws IOException {
+        for (FakeNode node : nodes) node.close();
+        nodes.clear();
+    }
+
+    @Test
+    void testCommandsGoToTheOwningNode() throws Exception {
+        FakeNode a = startNode(), b = startNode(), c = startNode();
+        try (ClusterClient client = new ClusterClient(List.of(a.address(), b.address(), c.address()))) {
+            createFiles(client, 30);
+
+            for (int i = 0; i < 30; i++) {
+                String name = "f" + i;
+                assertEquals("data" + i, nodeAt(client.ownerOf(name)).contents(name));
+            }
+            assertAllFilesReachable(client, 30);
+            assertTrue(client.delete("f0").startsWith("SUCCESS"));
+            assertTrue(client.read("f0").startsWith("ERROR"));
+        }
+    }
+
+    @Test
+    void testAddAndRemoveNodeMoveFilesToTheirNewOwner() throws Exception {
+        FakeNode a = startNode(), b = startNode();
+        try (ClusterClient client = new ClusterClient(List.of(a.address(), b.address()))) {
+            createFiles(client, 40);
+
+            FakeNode c = startNode();
+            int moved = client.addNode(c.address());
+            assertEquals(c.names().size(), moved);
+            assertTrue(moved > 0);
+            for (FakeNode node : nodes) {
+                for (String name : node.names()) assertEquals(node.address(), client.ownerOf(name));
+            }
+            assertAllFilesReachable(client, 40);
+
+            int onA = a.names().size();
+            assertEquals(onA, client.removeNode(a.address()));
+            assertTrue(a.names().isEmpty());
+            assertEquals(2, client.getNodes().size());
+            assertAllFilesReachable(client, 40);
+        }
+    }
+
+    @Test
+    void testFailedDeleteRollsBackAndRetryFinishes() throws Exception {
+        FakeNode a = startNode(), b = startNode();
+        try (ClusterClient client = new ClusterClient(List.of(a.address(), b.address()))) {
+            createFiles(client, 40);
+
+            FakeNode c = startNode();
+            b.failOn("DELETE");
+            assertThrows(IOException.class, () -> client.addNode(c.address()));
+            // the ring did not change, but files already moved off a are routed to c
+            assertEquals(2, client.getNodes().size());
+            assertAllFilesReachable(client, 40);
+
+            b.recover();
+            client.addNode(c.address());
+            assertEquals(3, client.getNodes().size());
+            assertFalse(c.names().isEmpty());
+            assertAllFilesReachable(client, 40);
+        }
+    }
+
+    @Test
+    void testFailedWriteRemovesThePartialCopy() throws Exception {
+        FakeNode a = startNode();
+        try (ClusterClient client = new ClusterClient(List.of(a.address()))) {
+            createFiles(client, 20);
+
+            FakeNode b = startNode();
+            b.failOn("WRITE");
+            assertThrows(IOException.class, () -> client.addNode(b.address()));
+            assertTrue(b.names().isEmpty());
+            assertEquals(20, a.names().size());
+            assertAllFilesReachable(client, 20);
+        }
+    }
+
+    @Test
+    void testOnlyReadOnlyCommandsAreRetried() throws Exception {
+        FakeNode a = startNode();
+        try (ClusterClient client = new ClusterClient(List.of(a.address()))) {
+            createFiles(client, 1);
+
+            // a lost READ reply is asked again on a fresh connection
+            a.dropReplyOnce("READ");
+            assertEquals("data0", client.read("f0"));
+            assertEquals(2, a.runs("READ"));
+
+            // a lost WRITE reply is not: the WRITE ran once and the caller is told
+            a.dropReplyOnce("WRITE");
+            assertThrows(IOException.class, () -> client.write("f0", "again"));
+            assertEquals(2, a.runs("WRITE"));
+            assertEquals("again", a.contents("f0"));
+
+            // and the next command reconnects
+            assertTrue(client.delete("f0").startsWith("SUCCESS"));
+        }
+    }
+
+    @Test
+    void testListPagesAcrossNodes() throws Exception {
+        FakeNode a = startNode(), b = startNode(), c = startNode();
+        try (ClusterClient client = new ClusterClient(List.of(a.address(), b.address(), c.address()))) {
+            createFiles(client, 30);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 30; i++) expected.add("f" + i);
+            Collections.sort(expected);
+
+            List<String> seen = new ArrayList<>();
+            String cursor = "-";
+            while (true) {
+                List<String> page = new ArrayList<>(List.of(client.send("LIST - " + cursor + " 7").split(" ")));
+                String last = page.get(page.size() - 1);
+                if (!last.startsWith("NEXT=")) {
+                    seen.addAll(page);
+                    break;
+                }
+                page.remove(page.size() - 1);
+                assertEquals(7, page.size());
+                assertEquals(page.get(6), last.substring("NEXT=".length()));
+                seen.addAll(page);
+                cursor = page.get(6);
+            }
+            assertEquals(expected, seen);
+
+            assertEquals("f1:5 f10:6 f11:6", client.send("LIST -l f1 - 3").replaceAll(" NEXT=.*", ""));
+            assertEquals("f2 f20 f21 f22 f23 f24 f25 f26 f27 f28 f29", client.send("LIST f2"));
+            assertTrue(client.send("LIST - - 0").startsWith("ERROR"));
+        }
+    }
+
+    @Test
+    void testSnapshotsSpanEveryNode() throws Exception {
+        FakeNode a = startNode(), b = startNode();
+        // a already has a snapshot of its own, so its ids and b's differ
+        try (ClusterClient single = new ClusterClient(List.of(a.address()))) {
+            assertEquals("SUCCESS: Snapshot 1 created.", single.send("SNAPSHOT"));
+        }
+
+        try (ClusterClient client = new ClusterClient(List.of(a.address(), b.address()))) {
+            createFiles(client, 20);
+            assertEquals("SUCCESS: Snapshot 1 created.", client.send("SNAPSHOT CREATE"));
+            assertEquals(Set.of(1, 2), a.snapshotIds());
+            assertEquals(Set.of(1), b.snapshotIds());
+            assertFalse(a.names().isEmpty());
+            assertFalse(b.names().isEmpty());
+
+            for (int i = 0; i < 20; i++) {
+                assertTrue(client.write("f" + i, "new" + i).startsWith("SUCCESS"));
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals("data" + i, client.read("f" + i + "@1"));
+                assertEquals("new" + i, client.read("f" + i));
+            }
+            assertEquals("1:NONE", client.send("SNAPSHOT LIST"));
+            assertTrue(client.read("nothere@1").startsWith("ERROR"));
+            assertTrue(client.read("f0@7").startsWith("ERROR"));
+
+            // files that moved to a new node are still found in the snapshot of their old one
+            FakeNode c = startNode();
+            assertTrue(client.addNode(c.address()) > 0);
+            for (int i = 0; i < 20; i++) {
+                assertEquals("data" + i, client.read("f" + i + "@1"));
+            }
+
+            assertTrue(client.send("SNAPSHOT EXPORT 1").startsWith("ERROR"));
+            assertEquals("SUCCESS: Snapshot 1 dropped.", client.send("SNAPSHOT DROP 1"));
+            assertEquals(Set.of(1), a.snapshotIds());
+            assertTrue(b.snapshotIds().isEmpty());
+            assertTrue(client.read("f0@1").startsWith("ERROR"));
+            assertEquals("", client.send("SNAPSHOT LIST"));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import ca.concordia.cluster.ConsistentHashRing;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistentHashRingTests {
+
+    private static final int KEYS = 20_000;
+
+    private static List<String> nodes(int count) {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) nodes.add("10.0.0." + i + ":12345");
+        return nodes;
+    }
+
+    private static Map<String, String> owners(ConsistentHashRing ring) {
+        Map<String, String> owners = new HashMap<>();
+        for (int k = 0; k < KEYS; k++) owners.put("file" + k, ring.ownerOf("file" + k));
+        return owners;
+    }
+
+    @Test
+    void testKeysAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(nodes(4), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        Map<String, Integer> perNode = new HashMap<>();
+        for (String owner : owners(ring).values()) perNode.merge(owner, 1, Integer::sum);
+
+        assertEquals(4, perNode.size());
+        for (int count : perNode.values()) {
+            // 128 virtual nodes keep every node within 25% of its fair share
+            assertTrue(Math.abs(count - KEYS / 4) < KEYS / 16, "unbalanced: " + perNode);
+        }
+    }
+
+    @Test
+    void testAddingANodeOnlyMovesKeysToIt() {
+        ConsistentHashRing ring = new ConsistentHashRing(nodes(4), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        Map<String, String> before = owners(ring);
+        String added = "10.0.0.99:12345";
+        ring.addNode(added);
+        Map<String, String> after = owners(ring);
+
+        int moved = 0;
+        for (String key : before.keySet()) {
+            if (!before.get(key).equals(after.get(key))) {
+                assertEquals(added, after.get(key));
+                moved++;
+            }
+        }
+        // about 1/5 of the keys
+        assertTrue(moved > KEYS / 5 * 3 / 4 && moved < KEYS / 5 * 5 / 4, "moved " + moved);
+    }
+
+    @Test
+    void testRemovingANodeOnlyMovesItsKeys() {
+        List<String> nodes = nodes(5);
+        ConsistentHashRing ring = new ConsistentHashRing(nodes, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        Map<String, String> before = owners(ring);
+        String removed = nodes.get(2);
+        ring.removeNode(removed);
+        Map<String, String> after = owners(ring);
+
+        for (String key : before.keySet()) {
+            if (before.get(key).equals(removed)) {
+                assertNotEquals(removed, after.get(key));
+            } else {
+                assertEquals(before.get(key), after.get(key));
+            }
+        }
+        assertFalse(ring.getNodes().contains(removed));
+    }
+
+    @Test
+    void testCopyIsIndependent() {
+        ConsistentHashRing ring = new ConsistentHashRing(nodes(2), 16);
+        ConsistentHashRing copy = ring.copy();
+        copy.addNode("10.0.0.99:12345");
+
+        assertEquals(2, ring.getNodes().size());
+        assertEquals(3, copy.getNodes().size());
+        assertEquals(16, copy.getVirtualNodes());
+        assertThrows(IllegalStateException.class, () -> new ConsistentHashRing().ownerOf("a"));
+    }
+}
@@ -0,0 +1,190 @@
+package helpers;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-process stand-in for one FileServer node: CREATE/WRITE/READ/DELETE/LIST on a map,
+// SNAPSHOT CREATE/LIST/DROP as copies of it (read with READ name@id), with the same response texts. Commands listed with failOn() answer with an ERROR instead;
+// the next command named in dropReplyOnce() is run but its connection is closed instead of answered.
+public class FakeNode implements Closeable {
+    private final ServerSocket serverSocket;
+    private final Map<String, String> files = new TreeMap<>();
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+    private final Set<String> dropReply = ConcurrentHashMap.newKeySet();
+    // how often each command was run
+    private final Map<String, Integer> runs = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<String, String>> snapshots = new TreeMap<>();
+    private int nextSnapshotId = 1;
+
+    public FakeNode() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String address() {
+        return "127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    public synchronized Set<String> names() {
+        return Set.copyOf(files.keySet());
+    }
+
+    public synchronized String contents(String name) {
+        return files.get(name);
+    }
+
+    public void failOn(String command) {
+        failing.add(command);
+    }
+
+    public void recover() {
+        failing.clear();
+    }
+
+    public void dropReplyOnce(String command) {
+        dropReply.add(command);
+    }
+
+    public int runs(String command) {
+        return runs.getOrDefault(command, 0);
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> serve(socket));
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String response = handle(line);
+                if (dropReply.remove(line.split(" ", 2)[0].toUpperCase())) {
+                    return; // closes the socket without an answer
+                }
+                out.println(response);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private synchronized String handle(String line) {
+        String[] parts = line.split(" ", 3);
+        String command = parts[0].toUpperCase();
+        runs.merge(command, 1, Integer::sum);
+        if (failing.contains(command)) {
+            return "ERROR: injected failure";
+        }
+        if (command.equals("LIST")) {
+            return list(line.trim().split(" +"));
+        }
+        if (command.equals("SNAPSHOT")) {
+            return snapshot(line.trim().split(" +"));
+        }
+        String name = parts[1];
+        int at = name.lastIndexOf('@');
+        if (command.equals("READ") && at >= 0) {
+            Map<String, String> snapshot = snapshots.get(Integer.parseInt(name.substring(at + 1)));
+            if (snapshot == null) return "ERROR: snapshot " + name.substring(at + 1) + " does not exist";
+            String file = name.substring(0, at);
+            if (!snapshot.containsKey(file)) return "ERROR: file " + file + " does not exist in snapshot " + name.substring(at + 1);
+            return snapshot.get(file);
+        }
+        switch (command) {
+            case "CREATE":
+                if (files.containsKey(name)) return "ERROR: file " + name + " already exists";
+                files.put(name, "");
+                return "SUCCESS: File '" + name + "' created.";
+            case "WRITE":
+                if (!files.containsKey(name)) return "ERROR: file " + name + " does not exist";
+                files.put(name, parts.length > 2 ? parts[2] : "");
+                return "SUCCESS: File '" + name + "' written.";
+            case "READ":
+                if (!files.containsKey(name)) return "ERROR: file " + name + " does not exist";
+                return files.get(name);
+            case "DELETE":
+                if (files.remove(name) == null) return "ERROR: file " + name + " does not exist";
+                return "SUCCESS: File '" + name + "' deleted.";
+            default:
+                return "ERROR: Unknown command.";
+        }
+    }
+
+    private String snapshot(String[] args) {
+        String action = (args.length > 1) ? args[1].toUpperCase() : "CREATE";
+        switch (action) {
+            case "CREATE":
+                int id = nextSnapshotId++;
+                snapshots.put(id, new TreeMap<>(files));
+                return "SUCCESS: Snapshot " + id + " created.";
+            case "LIST":
+                StringBuilder sb = new StringBuilder();
+                for (int snapshotId : snapshots.keySet()) {
+                    if (sb.length() > 0) sb.append(' ');
+                    sb.append(snapshotId).append(":NONE");
+                }
+                return sb.toString();
+            case "DROP":
+                if (snapshots.remove(Integer.parseInt(args[2])) == null) return "ERROR: snapshot " + args[2] + " does not exist";
+                return "SUCCESS: Snapshot " + args[2] + " dropped.";
+            default:
+                return "ERROR: usage: SNAPSHOT [CREATE|LIST|DROP <id>|EXPORT <id>]";
+        }
+    }
+
+    public synchronized Set<Integer> snapshotIds() {
+        return Set.copyOf(snapshots.keySet());
+    }
+
+    // LIST [-l] [prefix] [cursor] [limit], like the server
+    private String list(String[] args) {
+        int pos = 1;
+        boolean longFormat = pos < args.length && args[pos].equals("-l");
+        if (longFormat) pos++;
+        String prefix = (pos < args.length && !args[pos].equals("-")) ? args[pos] : "";
+        pos++;
+        String cursor = (pos < args.length && !args[pos].equals("-")) ? args[pos] : null;
+        pos++;
+        int limit = (pos < args.length) ? Integer.parseInt(args[pos]) : Integer.MAX_VALUE;
+
+        StringBuilder sb = new StringBuilder();
+        String last = null;
+        int count = 0;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String name = file.getKey();
+            if (!name.startsWith(prefix) || (cursor != null && name.compareTo(cursor) <= 0)) continue;
+            if (count == limit) {
+                sb.append(" NEXT=").append(last);
+                break;
+            }
+            if (count > 0) sb.append(' ');
+            sb.append(name);
+            if (longFormat) sb.append(':').append(file.getValue().length());
+            last = name;
+            count++;
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
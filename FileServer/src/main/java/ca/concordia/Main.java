@@ -1,13 +1,125 @@
 package ca.concordia;
 
 import ca.concordia.server.FileServer;
+import ca.concordia.server.SchedulingConfig;
+import ca.concordia.server.tls.TlsContext;
+import ca.concordia.tracing.Tracer;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Usage: Main [--fast-start] [--trace <N>] [--slow-ms <ms>] [--tls <keystore>] [scheduling options]
+//             [port] [filesystem-file]
+// Several servers can run side by side on one machine (e.g. as a cluster) as long as
+// each one gets its own port and backing file.
+// --fast-start opens the port immediately, loads metadata lazily and checks the volume
+// in the background (see FSCK).
+// --trace times one request in N per phase (1: every request) and logs the ones slower than
+// --slow-ms (default 100); --slow-ms alone traces every request.
+// --tls serves TLS only, with the certificate and key from a PKCS12/JKS keystore whose
+// password is taken from the FILESERVER_TLS_PASSWORD environment variable.
+//
+// Scheduling options (see SchedulingConfig; rates of 0 mean unlimited):
+//   --workers <n>          worker threads running filesystem operations (4)
+//   --bulk-delay-ms <ms>   longest a bulk write is passed over by reads (200)
+//   --bulk-bytes <n>       WRITEs larger than this are bulk (512)
+//   --client-ops <n>       ops/s of each connection (1000)
+//   --client-bytes <n>     bytes/s of each connection (1048576)
+//   --client <address>=<weight>[,<ops/s>[,<bytes/s>]]
+//                          fair-share weight (default 1) and rates of the connections from one
+//                          address, rates defaulting to the two above; may be repeated
 public class Main {
     public static void main(String[] args) {
         System.out.printf("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        boolean fastStartup = false;
+        int traceSampleEvery = -1;
+        long slowMillis = -1;
+        String keyStore = null;
+        int workers = SchedulingConfig.DEFAULT_WORKER_THREADS;
+        long bulkDelayMillis = SchedulingConfig.DEFAULT_MAX_BULK_DELAY_MS;
+        int bulkBytes = SchedulingConfig.DEFAULT_BULK_WRITE_BYTES;
+        double clientOps = SchedulingConfig.DEFAULT_OPS_PER_SECOND;
+        double clientBytes = SchedulingConfig.DEFAULT_BYTES_PER_SECOND;
+        List<String> clients = new ArrayList<>();
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--fast-start")) {
+                fastStartup = true;
+            } else if (arg.equals("--trace") && i + 1 < args.length) {
+                traceSampleEvery = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--slow-ms") && i + 1 < args.length) {
+                slowMillis = Long.parseLong(args[++i]);
+            } else if (arg.equals("--tls") && i + 1 < args.length) {
+                keyStore = args[++i];
+            } else if (arg.equals("--workers") && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--bulk-delay-ms") && i + 1 < args.length) {
+                bulkDelayMillis = Long.parseLong(args[++i]);
+            } else if (arg.equals("--bulk-bytes") && i + 1 < args.length) {
+                bulkBytes = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--client-ops") && i + 1 < args.length) {
+                clientOps = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--client-bytes") && i + 1 < args.length) {
+                clientBytes = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--client") && i + 1 < args.length) {
+                clients.add(args[++i]);
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (traceSampleEvery < 0) {
+            traceSampleEvery = (slowMillis >= 0) ? 1 : 0;
+        }
+        Tracer tracer = new Tracer(traceSampleEvery, (slowMillis >= 0) ? slowMillis : 100);
+
+        int port = (positional.size() >= 1) ? Integer.parseInt(positional.get(0)) : 12345;
+        String fileSystemName = (positional.size() >= 2) ? positional.get(1)
+                : (port == 12345 ? "filesystem.dat" : "filesystem-" + port + ".dat");
+
+        TlsContext tls = null;
+        if (keyStore != null) {
+            String password = System.getenv().getOrDefault("FILESERVER_TLS_PASSWORD", "");
+            try {
+                tls = TlsContext.fromKeyStore(keyStore, password.toCharArray());
+            } catch (Exception e) {
+                System.err.println("Could not load TLS keystore " + keyStore + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        SchedulingConfig scheduling;
+        try {
+            scheduling = new SchedulingConfig(workers, bulkDelayMillis, bulkBytes,
+                    new SchedulingConfig.ClientLimits(1.0, clientOps, clientBytes));
+            for (String client : clients) {
+                addClientLimits(scheduling, client);
+            }
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            System.err.println("Invalid scheduling option: " + e.getMessage());
+            return;
+        }
+
+        FileServer server = new FileServer(port, fileSystemName, 10 * 128, fastStartup, tracer, tls, scheduling);
         // Start the file server
         server.start();
     }
-}
\ No newline at end of file
+
+    // <address>=<weight>[,<ops/s>[,<bytes/s>]]
+    private static void addClientLimits(SchedulingConfig scheduling, String spec) throws UnknownHostException {
+        int eq = spec.indexOf('=');
+        if (eq < 0) {
+            throw new IllegalArgumentException("--client takes <address>=<weight>[,<ops/s>[,<bytes/s>]], got '" + spec + "'");
+        }
+        String[] values = spec.substring(eq + 1).split(",");
+        SchedulingConfig.ClientLimits defaults = scheduling.getDefaultLimits();
+        double weight = Double.parseDouble(values[0]);
+        double ops = (values.length > 1) ? Double.parseDouble(values[1]) : defaults.getOpsPerSecond();
+        double bytes = (values.length > 2) ? Double.parseDouble(values[2]) : defaults.getBytesPerSecond();
+        scheduling.setClientLimits(InetAddress.getByName(spec.substring(0, eq)),
+                new SchedulingConfig.ClientLimits(weight, ops, bytes));
+    }
+}
@@ -0,0 +1,189 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.FEntry;
+import ca.concordia.filesystem.datastructures.FEntryTable;
+import ca.concordia.filesystem.datastructures.FNodeTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Background fsck over a private copy of the metadata, so the live filesystem keeps serving
+// requests while it runs. Checks that:
+//   - every file's FNode chain stays inside the data region, is marked in use, has no cycles,
+//     is not shared with another file and has as many blocks as the file size needs
+//   - inline files (contents in their FEntry) fit in the inline area
+//   - every block marked in use belongs to a file (no leaked blocks)
+//   - the free bitmap agrees with the FNode table (for the regions loaded so far)
+//   - filenames are unique
+public class ConsistencyChecker {
+
+    public enum State {
+        RUNNING,
+        CLEAN,
+        PROBLEMS
+    }
+
+    private final FEntryTable inodeTable;
+    private final FNodeTable fnodeTable;
+    private final boolean[] freeBlockList;
+    private final boolean[] bitmapLoaded;
+    private final int[] pinCount;
+    private final int metadataBlocks;
+    private final int blockSize;
+
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+    private final int totalSteps;
+    private volatile int stepsDone = 0;
+    private volatile State state = State.RUNNING;
+    private volatile int filesChecked = 0;
+
+    ConsistencyChecker(FEntryTable inodeTable, FNodeTable fnodeTable, boolean[] freeBlockList,
+                       boolean[] bitmapLoaded, int[] pinCount, int metadataBlocks, int blockSize) {
+        this.inodeTable = inodeTable;
+        this.fnodeTable = fnodeTable;
+        this.freeBlockList = freeBlockList;
+        this.bitmapLoaded = bitmapLoaded;
+        this.pinCount = pinCount;
+        this.metadataBlocks = metadataBlocks;
+        this.blockSize = blockSize;
+        this.totalSteps = inodeTable.capacity() + fnodeTable.capacity();
+    }
+
+    void start() {
+        Thread checker = new Thread(this::run, "fsck");
+        checker.setDaemon(true);
+        checker.start();
+    }
+
+    // Getters
+
+    public State getState() {
+        return state;
+    }
+
+    public int getProgressPercent() {
+        return (int) (100L * stepsDone / Math.max(1, totalSteps));
+    }
+
+    public int getFilesChecked() {
+        return filesChecked;
+    }
+
+    public int getBlocksChecked() {
+        return fnodeTable.capacity();
+    }
+
+    public List<String> getProblems() {
+        synchronized (problems) {
+            return new ArrayList<>(problems);
+        }
+    }
+
+    void run() {
+        long startedAt = System.currentTimeMillis();
+        int blocks = fnodeTable.capacity();
+        // which file (FEntry slot) each block belongs to, -1 = none
+        int[] owner = new int[blocks];
+        Arrays.fill(owner, -1);
+        Set<String> names = new HashSet<>();
+        int lastReported = 0;
+
+        for (int i = 0; i < inodeTable.capacity(); i++) {
+            if (!inodeTable.isFree(i)) {
+                checkFile(i, owner, names);
+                filesChecked++;
+            }
+            stepsDone++;
+            lastReported = reportProgress(lastReported);
+        }
+
+        for (int b = 0; b < blocks; b++) {
+            boolean used = fnodeTable.getBlockIndex(b) == b;
+            if (b >= metadataBlocks && used && owner[b] < 0) {
+                problems.add("block " + b + " is marked in use but belongs to no file");
+            }
+            if (b < metadataBlocks && !used) {
+                problems.add("metadata block " + b + " is not marked in use");
+            }
+            if (bitmapLoaded[b]) {
+                boolean shouldBeFree = b >= metadataBlocks && !used && pinCount[b] == 0;
+                if (freeBlockList[b] != shouldBeFree) {
+                    problems.add("free bitmap says block " + b + " is " + (freeBlockList[b] ? "free" : "used")
+                            + " but the FNode table says " + (shouldBeFree ? "free" : "used"));
+                }
+            }
+            stepsDone++;
+            lastReported = reportProgress(lastReported);
+        }
+
+        state = problems.isEmpty() ? State.CLEAN : State.PROBLEMS;
+        System.out.println("fsck finished in " + (System.currentTimeMillis() - startedAt) + " ms: "
+                + (problems.isEmpty() ? "clean" : problems.size() + " problem(s)"));
+        for (String problem : getProblems()) {
+            System.out.println("fsck: " + problem);
+        }
+    }
+
+    private void checkFile(int index, int[] owner, Set<String> names) {
+        String name = inodeTable.getFilename(index);
+        if (!names.add(name)) {
+            problems.add("filename '" + name + "' is used by more than one FEntry");
+        }
+
+        int size = inodeTable.getFilesize(index);
+        if (size < 0) {
+            problems.add("file '" + name + "' has negative size " + size);
+            return;
+        }
+        if (inodeTable.isInline(index)) {
+            if (size > FEntry.INLINE_BYTES) {
+                problems.add("inline file '" + name + "' has size " + size + " but only "
+                        + FEntry.INLINE_BYTES + " bytes fit inline");
+            }
+            return;
+        }
+        int expected = (size + blockSize - 1) / blockSize;
+
+        int length = 0;
+        int block = inodeTable.getFirstBlock(index);
+        while (block != -1 && length <= fnodeTable.capacity()) {
+            if (block < metadataBlocks || block >= fnodeTable.capacity()) {
+                problems.add("file '" + name + "' points to block " + block + " outside the data region");
+                return;
+            }
+            if (fnodeTable.getBlockIndex(block) != block) {
+                problems.add("file '" + name + "' uses block " + block + " which is marked free");
+            }
+            if (owner[block] == index) {
+                problems.add("file '" + name + "' has a cycle in its block chain at block " + block);
+                return;
+            }
+            if (owner[block] >= 0) {
+                problems.add("block " + block + " is shared by file '" + name + "' and file '"
+                        + inodeTable.getFilename(owner[block]) + "'");
+                return;
+            }
+            owner[block] = index;
+            length++;
+            block = fnodeTable.getNext(block);
+        }
+
+        if (length != expected) {
+            problems.add("file '" + name + "' has size " + size + " (" + expected + " block(s)) but "
+                    + length + " block(s) in its chain");
+        }
+    }
+
+    private int reportProgress(int lastReported) {
+        int percent = getProgressPercent();
+        if (percent >= lastReported + 25) {
+            System.out.println("fsck: " + percent + "% done");
+            return percent - percent % 25;
+        }
+        return lastReported;
+    }
+}
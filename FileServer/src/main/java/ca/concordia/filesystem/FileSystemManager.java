@@ -1,13 +1,43 @@
 package ca.concordia.filesystem;
 
 import ca.concordia.filesystem.datastructures.FEntry;
+import ca.concordia.filesystem.datastructures.FEntryTable;
 import ca.concordia.filesystem.datastructures.FNode;
+import ca.concordia.filesystem.datastructures.FNodeTable;
+import ca.concordia.filesystem.events.FileEvent;
+import ca.concordia.filesystem.events.FileEventBus;
+import ca.concordia.filesystem.io.BlockIOEngine;
+import ca.concordia.tracing.Phase;
+import ca.concordia.tracing.Trace;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
-
+import java.util.function.UnaryOperator;
+
+// Volume layout (BLOCK_SIZE blocks):
+//   metadata blocks: header (magic, version), FEntry table, FNode table, packed as in
+//                    FEntryTable/FNodeTable and memory-mapped, so the in-memory tables *are*
+//                    the on-disk metadata
+//   data blocks:     file contents, chained through the FNode table
+// Files of up to FEntry.INLINE_BYTES are kept inside their FEntry instead (firstBlock
+// FEntry.INLINE) and use no data blocks; they move to blocks once they grow past that.
 public class FileSystemManager {
 
     private static final int MAXFILES = 5;
@@ -17,88 +47,279 @@ public class FileSystemManager {
     private final ReentrantLock globalLock = new ReentrantLock();
 
     private static final int BLOCK_SIZE = 128; // Example block size
-    private static final int FENTRY_SIZE = 15;
-    private static final int FNODE_SIZE = 8;
-    private static final int METADATA_SIZE = (MAXFILES * FENTRY_SIZE) + (FNODE_SIZE * MAXBLOCKS);
-
-    private FEntry[] inodeTable = new FEntry[MAXFILES]; // Array of inodes
-    private FNode[] fnodeTable = new FNode[MAXBLOCKS];
+    private static final int FENTRY_SIZE = FEntry.SIZE;
+    private static final int FNODE_SIZE = FNode.SIZE;
+    private static final int MAGIC = 0x46534D31; // "FSM1"
+    private static final int VERSION = 2; // 2: FEntry records with inline contents
+    private static final int HEADER_SIZE = 8;
+    private static final int FENTRY_TABLE_OFFSET = HEADER_SIZE;
+    private static final int FNODE_TABLE_OFFSET = FENTRY_TABLE_OFFSET + (MAXFILES * FENTRY_SIZE);
+    private static final int METADATA_SIZE = HEADER_SIZE + (MAXFILES * FENTRY_SIZE) + (FNODE_SIZE * MAXBLOCKS);
+    private static final int METADATA_BLOCKS = (METADATA_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+    // a request still holds rwLock while it waits for its block I/O, so never wait forever
+    private static final int IO_TIMEOUT_SECONDS = 30;
+
+    private static final ByteBuffer ZERO_BLOCK = ByteBuffer.allocate(BLOCK_SIZE).asReadOnlyBuffer();
+
+    private MappedByteBuffer metadata;
+    // all data block reads/writes go through here (batched, vectored, asynchronous)
+    private BlockIOEngine io;
+    private FEntryTable inodeTable; // Packed inodes
+    private FNodeTable fnodeTable;
     private boolean[] freeBlockList = new boolean[MAXBLOCKS]; // Bitmap for free blocks
+    // Sorted filename -> inodeTable slot, kept up to date on create/delete so lookups and
+    // LIST never have to scan the whole inodeTable
+    private final ConcurrentSkipListMap<String, Integer> nameIndex = new ConcurrentSkipListMap<>();
+
+    // Lazy metadata loading (fast startup): the free bitmap and the name index are rebuilt from
+    // the mapped tables one region at a time, on first touch, instead of all at once in the
+    // constructor. Each table is split into REGIONS regions, so that a lookup that finds its
+    // record early really does skip the rest. Loading is serialized by globalLock.
+    private static final int REGIONS = 4;
+    private static final int BLOCK_REGION_SIZE = (MAXBLOCKS + REGIONS - 1) / REGIONS;
+    private static final int INODE_REGION_SIZE = (MAXFILES + REGIONS - 1) / REGIONS;
+    private final boolean[] blockRegionLoaded = new boolean[(MAXBLOCKS + BLOCK_REGION_SIZE - 1) / BLOCK_REGION_SIZE];
+    private volatile boolean allBlocksLoaded = false;
+    private int inodeRegionsLoaded = 0;
+    private volatile boolean allInodesLoaded = false;
+    // most recent background fsck, if any
+    private volatile ConsistencyChecker lastCheck;
+    // CREATED/WRITTEN/DELETED notifications for WATCH subscribers
+    private final FileEventBus eventBus = new FileEventBus();
+    // Snapshots and, per block, how many of them reference it. A pinned block is never handed
+    // out again or zeroed, even after the live file that used it has moved on.
+    private final TreeMap<Integer, Snapshot> snapshots = new TreeMap<>();
+    private final int[] pinCount = new int[MAXBLOCKS];
+    private int nextSnapshotId = 1;
+    private String volumeName;
 
     public FileSystemManager(String filename, int totalSize) {
+        this(filename, totalSize, false);
+    }
+
+    // lazyMetadata: open the volume without reading its metadata; see REGIONS
+    public FileSystemManager(String filename, int totalSize, boolean lazyMetadata) {
+        this(filename, totalSize, lazyMetadata, UnaryOperator.identity());
+    }
+
+    // dataChannel wraps the channel that data blocks are read and written through (tests use
+    // it to inject I/O failures); the metadata is always mapped from the file itself
+    public FileSystemManager(String filename, int totalSize, boolean lazyMetadata, UnaryOperator<FileChannel> dataChannel) {
         // Initialize the file system manager with a file
         if(instance == null) {
 
             try {
-                disk = new RandomAccessFile("filesystem", "rw");
-                
-                // Initialize FNode table
-                int numOfMetadataBlocks = (int) Math.ceil(METADATA_SIZE / BLOCK_SIZE);
+                volumeName = filename;
+                disk = new RandomAccessFile(filename, "rw");
+                boolean existing = disk.length() >= METADATA_BLOCKS * BLOCK_SIZE;
+
+                if (disk.length() < MAXBLOCKS * BLOCK_SIZE){
+                    disk.setLength(MAXBLOCKS * BLOCK_SIZE);
+                }
 
-                for (int i = 0; i < MAXBLOCKS; i++){
+                // The tables are views straight onto the metadata blocks of the file
+                metadata = disk.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, METADATA_BLOCKS * BLOCK_SIZE);
+                inodeTable = new FEntryTable(metadata.slice(FENTRY_TABLE_OFFSET, FEntryTable.bytesFor(MAXFILES)), MAXFILES);
+                fnodeTable = new FNodeTable(metadata.slice(FNODE_TABLE_OFFSET, FNodeTable.bytesFor(MAXBLOCKS)), MAXBLOCKS);
 
-                    if (numOfMetadataBlocks == 1){
+                io = new BlockIOEngine(dataChannel.apply(disk.getChannel()), BLOCK_SIZE);
 
-                        if(i == 0){
-                            fnodeTable[i] = new FNode(i);
-                            freeBlockList[i] = false;
-                        }
-                        else{
+                if (existing && metadata.getInt(0) == MAGIC){
 
-                            fnodeTable[i] = new FNode(-i);
-                            freeBlockList[i] = true;
-                        }
+                    if (metadata.getInt(4) != VERSION){
+                        throw new IllegalStateException("Unsupported filesystem version " + metadata.getInt(4) + " in " + filename);
                     }
-                    else{
-                        
-                        if (i < numOfMetadataBlocks){
-
-                            fnodeTable[i] = new FNode(i);
-                            if (i != numOfMetadataBlocks - 1) {fnodeTable[i].setNext(i + 1);}
-                            freeBlockList[i] = false;
-                        }
-                        else{
-                            
-                            fnodeTable[i] = new FNode(-i);
-                            freeBlockList[i] = true;
-                        }
+                    if (!lazyMetadata){
+                        loadMetadata();
                     }
-
                 }
-            
-                // Initialize FEntry table
-                for (int i = 0; i < MAXFILES; i++){
-                    inodeTable[i] = null;
+                else{
+                    format();
                 }
 
             } catch (IOException e){
-                e.printStackTrace();
+                throw new IllegalStateException("Could not open filesystem " + filename, e);
             }
 
-            //TODO Initialize the file system
-
         } else {
             throw new IllegalStateException("FileSystemManager is already initialized.\n");
         }
 
     }
 
-    public void createFile(String fileName) throws Exception {
+    // Fresh volume: metadata blocks chained and in use, every data block free, no files
+    private void format(){
+
+        for (int i = 0; i < MAXBLOCKS; i++){
+
+            if (i < METADATA_BLOCKS){
+
+                fnodeTable.setBlockIndex(i, i);
+                fnodeTable.setNext(i, (i != METADATA_BLOCKS - 1) ? i + 1 : -1);
+                freeBlockList[i] = false;
+            }
+            else{
+
+                fnodeTable.setBlockIndex(i, -i);
+                fnodeTable.setNext(i, -1);
+                freeBlockList[i] = true;
+            }
+        }
 
         for (int i = 0; i < MAXFILES; i++){
+            inodeTable.clear(i);
+        }
+
+        metadata.putInt(0, MAGIC);
+        metadata.putInt(4, VERSION);
+
+        Arrays.fill(blockRegionLoaded, true);
+        allBlocksLoaded = true;
+        inodeRegionsLoaded = (MAXFILES + INODE_REGION_SIZE - 1) / INODE_REGION_SIZE;
+        allInodesLoaded = true;
+    }
+
+    // Existing volume: rebuild the in-memory free bitmap and name index from the tables
+    private void loadMetadata(){
+
+        for (int i = 0; i < MAXBLOCKS; i += BLOCK_REGION_SIZE){
+            ensureBlockRegion(i);
+        }
+        ensureAllInodes();
+    }
+
+    // Free-bitmap entry of a block, loading its region of the FNode table on first touch
+    private boolean isFree(int blockIndex){
+
+        ensureBlockRegion(blockIndex);
+        return freeBlockList[blockIndex];
+    }
+
+    private void setFree(int blockIndex, boolean free){
+
+        ensureBlockRegion(blockIndex);
+        freeBlockList[blockIndex] = free;
+    }
+
+    private void ensureBlockRegion(int blockIndex){
+
+        if (allBlocksLoaded){
+            return;
+        }
+        globalLock.lock();
+        try {
+            int region = blockIndex / BLOCK_REGION_SIZE;
+            if (blockRegionLoaded[region]){
+                return;
+            }
+            int end = Math.min(MAXBLOCKS, (region + 1) * BLOCK_REGION_SIZE);
+            for (int i = region * BLOCK_REGION_SIZE; i < end; i++){
+                // a block is in use when its FNode points at itself; free ones hold -index
+                freeBlockList[i] = i >= METADATA_BLOCKS && fnodeTable.getBlockIndex(i) != i;
+            }
+            blockRegionLoaded[region] = true;
+
+            boolean all = true;
+            for (boolean loaded : blockRegionLoaded){
+                all &= loaded;
+            }
+            allBlocksLoaded = all;
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    // Adds the next region of the FEntry table to nameIndex; false once everything is loaded
+    private boolean loadNextInodeRegion(){
+
+        if (allInodesLoaded){
+            return false;
+        }
+        globalLock.lock();
+        try {
+            int start = inodeRegionsLoaded * INODE_REGION_SIZE;
+            if (start >= MAXFILES){
+                allInodesLoaded = true;
+                return false;
+            }
+            for (int i = start; i < Math.min(MAXFILES, start + INODE_REGION_SIZE); i++){
+
+                if (!inodeTable.isFree(i)){
+                    nameIndex.put(inodeTable.getFilename(i), i);
+                }
+            }
+            inodeRegionsLoaded++;
+            allInodesLoaded = inodeRegionsLoaded * INODE_REGION_SIZE >= MAXFILES;
+            return true;
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    private void ensureAllInodes(){
+
+        while (loadNextInodeRegion()){
+            // keep loading
+        }
+    }
+
+    // Starts a background fsck. Only copying the metadata happens in this call, so the caller
+    // should hold the filesystem lock just around it; the check itself runs on its own thread.
+    public ConsistencyChecker startConsistencyCheck(){
+
+        boolean[] bitmap = new boolean[MAXBLOCKS];
+        boolean[] loaded = new boolean[MAXBLOCKS];
 
-            if (inodeTable[i].getFilename() == fileName){
-                throw new Exception("This file already exists\n");
+        // readers may still be loading bitmap regions, so copy both under the loading lock
+        globalLock.lock();
+        try {
+            for (int i = 0; i < MAXBLOCKS; i++){
+                loaded[i] = allBlocksLoaded || blockRegionLoaded[i / BLOCK_REGION_SIZE];
+                bitmap[i] = freeBlockList[i];
             }
+        } finally {
+            globalLock.unlock();
+        }
+
+        ConsistencyChecker checker = new ConsistencyChecker(inodeTable.copy(), fnodeTable.copy(), bitmap, loaded,
+                pinCount.clone(), METADATA_BLOCKS, BLOCK_SIZE);
+        lastCheck = checker;
+        checker.start();
+
+        return checker;
+    }
+
+    // false while a lazily opened volume still has regions of its metadata left to load
+    public boolean isMetadataLoaded(){
+
+        return allBlocksLoaded && allInodesLoaded;
+    }
+
+    public ConsistencyChecker getLastConsistencyCheck(){
+
+        return lastCheck;
+    }
+
+    public FileEventBus getEventBus() {
+        return eventBus;
+    }
+
+    public void createFile(String fileName) throws Exception {
+
+        ensureAllInodes();
+
+        if (nameIndex.containsKey(fileName)){
+            throw new Exception("This file already exists\n");
         }
 
         for (int i = 0; i < MAXFILES; i++){
 
-            if (inodeTable[i] == null){
-                inodeTable[i] = new FEntry(fileName, (short) 0, (short) (i + 1));
-                fnodeTable[i + 1].setBlockIndex(i + 1);
-                // Even if the file is empty, the freeBlockList should still reflect that the block is being used by a file
-                freeBlockList[i + 1] = false;
+            if (inodeTable.isFree(i)){
+                // a new file is empty and inline, so creating it takes no data block
+                inodeTable.put(i, fileName, (short) 0, FEntry.INLINE);
+                nameIndex.put(fileName, i);
+                eventBus.publish(FileEvent.Type.CREATED, fileName);
                 break;
             }
             else if (i == MAXFILES - 1){
@@ -117,157 +338,482 @@ public class FileSystemManager {
 
         writeZeroes(fileFEntryIndex);
 
-        inodeTable[fileFEntryIndex] = null;
+        inodeTable.clear(fileFEntryIndex);
+        nameIndex.remove(fileName);
+        eventBus.publish(FileEvent.Type.DELETED, fileName);
     }
 
     public int findNextFreeBlockIndex(int currentIndex){
 
         for (int i = currentIndex; i < MAXBLOCKS; i++){
-            if (freeBlockList[i] == true){
+            if (isFree(i)){
                 return i;
             }
         }
         return -1;
     }
 
+    // count blocks for a new chain, or null if there are not that many: the lowest free
+    // blocks, then, only if those run out, blocks of reusable that no snapshot pins. Free
+    // blocks come first so that the old contents stay intact until the new ones are written.
+    // Stops (and stops loading bitmap regions) once it has found enough.
+    private int[] pickBlocks(int count, int[] reusable){
+
+        int[] picked = new int[count];
+        int found = 0;
+
+        for (int i = 0; i < MAXBLOCKS && found < count; i++){
+
+            if (isFree(i)){
+                picked[found++] = i;
+            }
+        }
+        for (int i = 0; i < MAXBLOCKS && found < count; i++){
+
+            if (pinCount[i] == 0 && contains(reusable, i)){
+                picked[found++] = i;
+            }
+        }
+        if (found < count){
+            return null;
+        }
+
+        Arrays.sort(picked);
+        return picked;
+    }
+
+    private static boolean contains(int[] blocks, int block){
+
+        for (int b : blocks){
+            if (b == block){
+                return true;
+            }
+        }
+        return false;
+    }
+
     public int numFreeBlocks(){
 
         int freeBlocks = 0;
 
         for (int i = 0; i < MAXBLOCKS; i++){
 
-            if (freeBlockList[i] == true){
+            if (isFree(i)){
                 freeBlocks++;
             }
         }
 
         return freeBlocks;
     }
-    
-    public void writeZeroes(int fileIndex) throws Exception{
 
-        int blockIndex = inodeTable[fileIndex].getFirstBlock();
-        int numOfFileBlocks = (int) Math.ceil(inodeTable[fileIndex].getFilesize() / BLOCK_SIZE);
-        int numOfFileBlocksWritten = 0;
-        byte[] zeroes = new byte[BLOCK_SIZE];
-        int temp;
-
-        while(numOfFileBlocksWritten < numOfFileBlocks){
-            disk.seek(blockIndex * BLOCK_SIZE);
-            disk.write(zeroes);
+    // Zeroes and frees every block of the file, leaving it empty and inline. The metadata is
+    // only changed once the zeroes are written, so if that fails the file keeps its blocks.
+    public void writeZeroes(int fileIndex) throws Exception{
 
-            temp = blockIndex;
-            blockIndex = fnodeTable[temp].getNext();
+        int[] chain = chainOf(fileIndex);
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
 
-            fnodeTable[temp].setBlockIndex(-temp);
-            fnodeTable[temp].setNext(-1);
-            freeBlockList[temp] = true;
-            
-            numOfFileBlocksWritten++;
+        for (int block : chain){
+            if (pinCount[block] == 0){ // still needed by a snapshot otherwise
+                pending.add(io.write(block, ZERO_BLOCK.duplicate()));
+            }
         }
+        await(pending);
 
-        inodeTable[fileIndex].setFilesize((short) 0);
-    };
+        inodeTable.setFirstBlock(fileIndex, FEntry.INLINE);
+        inodeTable.clearInline(fileIndex);
+        inodeTable.setFilesize(fileIndex, (short) 0);
+        for (int block : chain){
+            releaseBlock(block);
+        }
+    }
 
     public int findFileFEntryIndex(String fileName) throws Exception{
-        
-        for (int i = 0; i < MAXFILES; i++){
 
-            if (inodeTable[i].getFilename() == fileName){
+        Integer index = nameIndex.get(fileName);
 
-                return i;
-
-            }else if (i == MAXFILES - 1){
+        // not seen yet: keep loading regions until it shows up or the table is exhausted
+        while (index == null && loadNextInodeRegion()){
+            index = nameIndex.get(fileName);
+        }
 
-                throw new Exception("ERROR: file " + fileName + "does not exist\n");
-            }
+        if (index == null){
+            throw new Exception("ERROR: file " + fileName + " does not exist\n");
         }
 
-        return -1;
+        return index;
     }
 
     public void writeFile(String fileName, byte[] contents) throws Exception {
 
         int fileFEntryIndex = findFileFEntryIndex(fileName);
-        int freeBlocks = numFreeBlocks();
-        
-        int numOfCurrentFileBlocks = (int) Math.ceil(inodeTable[fileFEntryIndex].getFilesize() / BLOCK_SIZE);
-        int numOfFutureFileBlocks = (int) Math.ceil(contents.length / BLOCK_SIZE);
+        int[] currentBlocks = chainOf(fileFEntryIndex);
+        // small contents go into the FEntry itself and need no blocks
+        boolean inline = contents.length <= FEntry.INLINE_BYTES;
+        int numOfFutureFileBlocks = inline ? 0 : blocksFor(contents.length);
+
+        // The new chain is picked before anything is released, so a write that does not fit
+        // fails with the file untouched. It may reuse the file's own blocks, except those a
+        // snapshot still pins, once no free ones are left; the chain is in block order, which
+        // keeps files contiguous and lets the I/O engine merge their writes.
+        int[] newBlocks = (contents.length > Short.MAX_VALUE) ? null : pickBlocks(numOfFutureFileBlocks, currentBlocks);
+        if (newBlocks == null){
+            throw new Exception("ERROR: file too large!\n");
+        }
 
-        if (freeBlocks + numOfCurrentFileBlocks >= numOfFutureFileBlocks){
+        // The data is written before any metadata changes: the picked free blocks are only
+        // claimed in the bitmap (their FNodes still say free, so a crash leaves them free), and
+        // a failed write gives them back with the FEntry still on the old chain. Only blocks
+        // reused from that chain are overwritten in place.
+        for (int block : newBlocks){
+            if (!contains(currentBlocks, block)){
+                setFree(block, false);
+            }
+        }
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
 
-            writeZeroes(fileFEntryIndex);
+        for (int i = 0; i < newBlocks.length; i++){
 
-            int blockIndex = inodeTable[fileFEntryIndex].getFirstBlock();
-            int start = 0;
-            int end = Math.min(contents.length, BLOCK_SIZE);
-            int numOfBlocksWritten = 0;
+            int start = i * BLOCK_SIZE;
+            int length = Math.max(0, Math.min(BLOCK_SIZE, contents.length - start));
+            if (length > 0){
+                pending.add(io.write(newBlocks[i], ByteBuffer.wrap(contents, start, length)));
+            }
+        }
+        try {
+            await(pending);
+        } catch (Exception e) {
+            for (int block : newBlocks){
+                if (!contains(currentBlocks, block)){
+                    setFree(block, true);
+                }
+            }
+            throw e;
+        }
 
-            for (int i = 0; i < MAXBLOCKS; i++){
+        for (int block : currentBlocks){
+            releaseBlock(block);
+        }
+        linkChain(newBlocks);
+        if (inline){
+            inodeTable.writeInline(fileFEntryIndex, contents);
+            inodeTable.setFirstBlock(fileFEntryIndex, FEntry.INLINE);
+        }
+        else{
+            inodeTable.clearInline(fileFEntryIndex);
+            inodeTable.setFirstBlock(fileFEntryIndex, (short) newBlocks[0]);
+        }
+        inodeTable.setFilesize(fileFEntryIndex, (short) contents.length);
+        eventBus.publish(FileEvent.Type.WRITTEN, fileName);
+
+        // old blocks that were not reused get zeroed, as on delete
+        pending.clear();
+        for (int block : currentBlocks){
+            if (isFree(block)){
+                pending.add(io.write(block, ZERO_BLOCK.duplicate()));
+            }
+        }
+        try {
+            await(pending);
+        } catch (Exception e) {
+            // the write itself succeeded; this only leaves stale bytes in free blocks
+        }
+    }
 
-                if (freeBlockList[i] == true && numOfBlocksWritten < numOfFutureFileBlocks){
+    public byte[] readFile(String fileName) throws Exception {
 
-                    byte[] slice = Arrays.copyOfRange(contents, start, end);
-                    disk.seek(blockIndex * BLOCK_SIZE);
-                    disk.write(slice);
-                    
-                    blockIndex = findNextFreeBlockIndex(i);
-                    fnodeTable[i].setBlockIndex(i);
+        return readBlocks(inodeTable, fnodeTable, findFileFEntryIndex(fileName));
+    }
 
-                    if (numOfBlocksWritten != numOfFutureFileBlocks - 1) {fnodeTable[i].setNext(blockIndex);}
+    // READ name@snapshot: the file as it was when the snapshot was taken
+    public byte[] readFile(String fileName, int snapshotId) throws Exception {
 
-                    start = end;
-                    end = Math.min(contents.length, end + BLOCK_SIZE);
-                    freeBlockList[i] = false;
-                    numOfBlocksWritten++;
-                }
-            }
-            
-            inodeTable[fileFEntryIndex].setFilesize((short) contents.length);
+        Snapshot snapshot = findSnapshot(snapshotId);
+        Integer index = snapshot.nameIndex.get(fileName);
+
+        if (index == null){
+            throw new Exception("ERROR: file " + fileName + " does not exist in snapshot " + snapshotId + "\n");
         }
-        else{
-            throw new Exception("ERROR: file too large!\n");
-        }        
+
+        return readBlocks(snapshot.inodeTable, snapshot.fnodeTable, index);
     }
-    
-    public byte[] readFile(String fileName) throws Exception {
 
-        int fileIndex = findFileFEntryIndex(fileName);
-        int fileSize = inodeTable[fileIndex].getFilesize();
-        int blockIndex = inodeTable[fileIndex].getFirstBlock();
-        int numBlocksInFile = (int) Math.ceil(fileSize / BLOCK_SIZE);
+    private byte[] readBlocks(FEntryTable inodes, FNodeTable fnodes, int fileIndex) throws Exception {
+
+        int fileSize = inodes.getFilesize(fileIndex);
+        int blockIndex = inodes.getFirstBlock(fileIndex);
+        int numBlocksInFile = blocksFor(fileSize);
 
         byte[] contents = new byte[fileSize];
-        byte[] bytesToRead = new byte[BLOCK_SIZE];
 
+        if (inodes.isInline(fileIndex)){
+            // answered from the metadata, no block I/O
+            inodes.readInline(fileIndex, contents, 0, fileSize);
+            return contents;
+        }
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        // every block is read straight into its slice of the result
         for (int i = 0; i < numBlocksInFile; i++){
 
-            disk.seek(blockIndex * BLOCK_SIZE);
+            int start = i * BLOCK_SIZE;
+            pending.add(io.read(blockIndex, ByteBuffer.wrap(contents, start, Math.min(BLOCK_SIZE, fileSize - start))));
+            blockIndex = fnodes.getNext(blockIndex);
+        }
+        await(pending);
+
+        return contents;
+    }
+
+    // Freezes the current metadata. Only the tables are copied; data blocks are shared with the
+    // live filesystem and pinned until the snapshot is dropped.
+    public Snapshot createSnapshot(){
 
-            if (i == numBlocksInFile - 1){
+        List<Integer> pinned = new ArrayList<>();
+        ensureAllInodes();
 
-                bytesToRead = new byte[fileSize % BLOCK_SIZE];
+        for (int fileIndex : nameIndex.values()){
+            for (int block : chainOf(fileIndex)){
+                pinned.add(block);
+                pinCount[block]++;
             }
+        }
 
-            disk.read(bytesToRead);
+        Snapshot snapshot = new Snapshot(nextSnapshotId++, inodeTable.copy(), fnodeTable.copy(),
+                new TreeMap<>(nameIndex), pinned.stream().mapToInt(Integer::intValue).toArray());
+        snapshots.put(snapshot.getId(), snapshot);
 
-            System.arraycopy(bytesToRead, 0, contents, i * BLOCK_SIZE, bytesToRead.length);
-            blockIndex = fnodeTable[blockIndex].getNext();
-        }        
-        
-        return contents;
+        return snapshot;
+    }
+
+    public List<Snapshot> getSnapshots(){
+
+        return new ArrayList<>(snapshots.values());
+    }
+
+    // Unpins the snapshot's blocks; those the live filesystem no longer uses are zeroed and freed
+    public void dropSnapshot(int snapshotId) throws Exception {
+
+        Snapshot snapshot = findSnapshot(snapshotId);
+
+        if (snapshot.getExportState() == Snapshot.ExportState.EXPORTING){
+            throw new Exception("ERROR: snapshot " + snapshotId + " is being exported\n");
+        }
+        snapshots.remove(snapshotId);
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        for (int block : snapshot.pinnedBlocks){
+
+            pinCount[block]--;
+            if (pinCount[block] == 0 && fnodeTable.getBlockIndex(block) != block){
+                setFree(block, true);
+                pending.add(io.write(block, ZERO_BLOCK.duplicate()));
+            }
+        }
+        await(pending);
+    }
+
+    // Writes the snapshot as a complete volume image (mountable like any other volume) to
+    // "<volume>.snap<id>" on a background thread. Needs no lock: the snapshot's tables are
+    // private and its blocks cannot change while it is pinned and exporting.
+    public String exportSnapshot(int snapshotId) throws Exception {
+
+        Snapshot snapshot = findSnapshot(snapshotId);
+
+        if (snapshot.getExportState() == Snapshot.ExportState.EXPORTING){
+            throw new Exception("ERROR: snapshot " + snapshotId + " is already being exported\n");
+        }
+        snapshot.setExportState(Snapshot.ExportState.EXPORTING);
+
+        String target = volumeName + ".snap" + snapshotId;
+
+        Thread exporter = new Thread(() -> {
+            try {
+                writeImage(snapshot, Path.of(target));
+                snapshot.setExportState(Snapshot.ExportState.EXPORTED);
+                System.out.println("Snapshot " + snapshotId + " exported to " + target);
+            } catch (Exception e) {
+                snapshot.setExportState(Snapshot.ExportState.FAILED);
+                System.err.println("Snapshot " + snapshotId + " export failed: " + e.getMessage());
+            }
+        }, "snapshot-export-" + snapshotId);
+        exporter.setDaemon(true);
+        exporter.start();
+
+        return target;
+    }
+
+    private void writeImage(Snapshot snapshot, Path target) throws Exception {
+
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            out.write(header, 0);
+            snapshot.inodeTable.writeTo(out, FENTRY_TABLE_OFFSET);
+            snapshot.fnodeTable.writeTo(out, FNODE_TABLE_OFFSET);
+
+            // the pinned blocks are all the data the snapshot has; everything else stays zero
+            int[] blocks = snapshot.pinnedBlocks;
+            ByteBuffer[] data = new ByteBuffer[blocks.length];
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+            for (int i = 0; i < blocks.length; i++){
+                data[i] = ByteBuffer.allocate(BLOCK_SIZE);
+                pending.add(io.read(blocks[i], data[i]));
+            }
+            await(pending);
+
+            for (int i = 0; i < blocks.length; i++){
+                data[i].flip();
+                out.write(data[i], (long) blocks[i] * BLOCK_SIZE);
+            }
+
+            // full volume size, so the image opens as an existing volume
+            out.write(ByteBuffer.allocate(1), (long) MAXBLOCKS * BLOCK_SIZE - 1);
+            out.force(true);
+        }
+    }
+
+    private Snapshot findSnapshot(int snapshotId) throws Exception {
+
+        Snapshot snapshot = snapshots.get(snapshotId);
+
+        if (snapshot == null){
+            throw new Exception("ERROR: snapshot " + snapshotId + " does not exist\n");
+        }
+
+        return snapshot;
+    }
+
+    private static int blocksFor(int bytes){
+        return (bytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    // Blocks of a file in chain order (guards against broken or cyclic chains)
+    private int[] chainOf(int fileIndex){
+
+        List<Integer> chain = new ArrayList<>();
+        int blockIndex = inodeTable.getFirstBlock(fileIndex);
+
+        while (blockIndex >= METADATA_BLOCKS && blockIndex < MAXBLOCKS
+                && fnodeTable.getBlockIndex(blockIndex) == blockIndex && chain.size() < MAXBLOCKS){
+            chain.add(blockIndex);
+            blockIndex = fnodeTable.getNext(blockIndex);
+        }
+
+        return chain.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Marks the given (free) blocks used and links them into a chain in that order
+    private void linkChain(int[] chain){
+
+        for (int i = 0; i < chain.length; i++){
+            fnodeTable.setBlockIndex(chain[i], chain[i]);
+            fnodeTable.setNext(chain[i], -1);
+            setFree(chain[i], false);
+            if (i > 0) {fnodeTable.setNext(chain[i - 1], chain[i]);}
+        }
+    }
+
+    // Drops a block from the live filesystem; it only becomes free once no snapshot pins it
+    private void releaseBlock(int blockIndex){
+
+        fnodeTable.setBlockIndex(blockIndex, -blockIndex);
+        fnodeTable.setNext(blockIndex, -1);
+        setFree(blockIndex, pinCount[blockIndex] == 0);
+    }
+
+    // Waits (at most IO_TIMEOUT_SECONDS) for a batch of block I/O; for a traced request the
+    // work before it counts as metadata and the wait itself as I/O
+    private static void await(List<CompletableFuture<Void>> pending) throws Exception {
+
+        Trace trace = Trace.current();
+        trace.mark(Phase.METADATA);
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("ERROR: block I/O timed out\n");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            trace.mark(Phase.IO);
+        }
     }
 
     public String[] listFiles(){
-        
-        int numFiles = inodeTable.length;
-        String[] files = new String[numFiles];
 
-        for (int i = 0; i < numFiles; i++){
+        ensureAllInodes();
+
+        return nameIndex.keySet().toArray(new String[0]);
+    }
+
+    // One page of filenames in sorted order: names starting with prefix that sort strictly
+    // after cursor, at most limit of them. Empty prefix/null cursor mean "no restriction".
+    public String[] listFiles(String prefix, String cursor, int limit){
+
+        List<String> page = new ArrayList<>();
+
+        for (String name : pageOf(prefix, cursor).keySet()){
+
+            if (page.size() >= limit){
+                break;
+            }
+            page.add(name);
+        }
+
+        return page.toArray(new String[0]);
+    }
+
+    // Same as listFiles(prefix, cursor, limit) but with the in-memory metadata of each file
+    public FEntry[] listEntries(String prefix, String cursor, int limit){
+
+        List<FEntry> page = new ArrayList<>();
+
+        for (int index : pageOf(prefix, cursor).values()){
+
+            if (page.size() >= limit){
+                break;
+            }
+            page.add(inodeTable.copyOf(index));
+        }
+
+        return page.toArray(new FEntry[0]);
+    }
+
+    // Metadata of one file, answered from the in-memory table without touching the disk
+    public FEntry statFile(String fileName) throws Exception {
+
+        return inodeTable.copyOf(findFileFEntryIndex(fileName));
+    }
+
+    private SortedMap<String, Integer> pageOf(String prefix, String cursor){
+
+        ensureAllInodes();
+
+        // every name starting with prefix sorts in [prefix, prefix + '\uffff')
+        String from = (prefix == null) ? "" : prefix;
+
+        if (cursor != null && !cursor.isEmpty()){
+            String afterCursor = cursor + Character.MIN_VALUE;
+            if (afterCursor.compareTo(from) > 0){
+                from = afterCursor;
+            }
+        }
+        if (prefix == null || prefix.isEmpty()){
+            return nameIndex.tailMap(from);
+        }
 
-            files[i] = inodeTable[i].getFilename();
+        String to = prefix + Character.MAX_VALUE;
+        if (from.compareTo(to) >= 0){
+            return Collections.emptySortedMap();
         }
 
-        return files;
+        return nameIndex.subMap(from, to);
     }
 }
@@ -0,0 +1,59 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.FEntryTable;
+import ca.concordia.filesystem.datastructures.FNodeTable;
+
+import java.util.TreeMap;
+
+// Point-in-time image of the volume: private copies of the (small) FEntry/FNode tables plus the
+// set of data blocks they reference. Those blocks are pinned in FileSystemManager, which never
+// reuses or zeroes a pinned block, so the snapshot stays readable while the live filesystem
+// keeps changing (copy-on-write: live writes always land in fresh blocks).
+public class Snapshot {
+
+    public enum ExportState {
+        NONE,
+        EXPORTING,
+        EXPORTED,
+        FAILED
+    }
+
+    private final int id;
+    private final long createdAt;
+    final FEntryTable inodeTable;
+    final FNodeTable fnodeTable;
+    final TreeMap<String, Integer> nameIndex;
+    final int[] pinnedBlocks;
+    private volatile ExportState exportState = ExportState.NONE;
+
+    Snapshot(int id, FEntryTable inodeTable, FNodeTable fnodeTable, TreeMap<String, Integer> nameIndex, int[] pinnedBlocks) {
+        this.id = id;
+        this.createdAt = System.currentTimeMillis();
+        this.inodeTable = inodeTable;
+        this.fnodeTable = fnodeTable;
+        this.nameIndex = nameIndex;
+        this.pinnedBlocks = pinnedBlocks;
+    }
+
+    // Getters
+
+    public int getId() {
+        return id;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getFileCount() {
+        return nameIndex.size();
+    }
+
+    public ExportState getExportState() {
+        return exportState;
+    }
+
+    void setExportState(ExportState exportState) {
+        this.exportState = exportState;
+    }
+}
@@ -1,47 +1,99 @@
 package ca.concordia.filesystem.datastructures;
 
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+// Flyweight over one packed FEntry record:
+//   filename   11 bytes (UTF-8, zero padded; first byte 0 = unused slot)
+//   filesize    2 bytes
+//   firstBlock  2 bytes (INLINE: the contents are in the inline area, no blocks)
+//   inline     32 bytes (contents of files up to INLINE_BYTES long, zero padded)
+// Records normally live in an FEntryTable; the public constructor backs a standalone entry
+// with its own small buffer.
 public class FEntry {
 
-    private String filename;
-    private short filesize;
-    private short firstBlock; // Pointers to data blocks
+    public static final int MAX_FILENAME_BYTES = 11;
+    public static final int INLINE_BYTES = 32;
+    public static final int SIZE = MAX_FILENAME_BYTES + 2 + 2 + INLINE_BYTES;
+    // firstBlock of a file stored in its FEntry
+    public static final short INLINE = -1;
+
+    static final int FILESIZE_OFFSET = MAX_FILENAME_BYTES;
+    static final int FIRST_BLOCK_OFFSET = MAX_FILENAME_BYTES + 2;
+    static final int INLINE_OFFSET = MAX_FILENAME_BYTES + 4;
+
+    private final ByteBuffer buffer;
+    private final int offset;
 
     public FEntry(String filename, short filesize, short firstblock) throws IllegalArgumentException{
-        //Check filename is max 11 bytes long
-        if (filename.length() > 11) {
-            throw new IllegalArgumentException("Filename cannot be longer than 11 characters.");
-        }
-        this.filename = filename;
-        this.filesize = filesize;
-        this.firstBlock = firstblock;
+        this(ByteBuffer.allocate(SIZE), 0);
+        setFilename(filename);
+        setFilesize(filesize);
+        buffer.putShort(offset + FIRST_BLOCK_OFFSET, firstblock);
+    }
+
+    // Standalone record holding a copy of the SIZE bytes at offset in buffer
+    static FEntry copyOf(ByteBuffer buffer, int offset) {
+        byte[] record = new byte[SIZE];
+        buffer.get(offset, record);
+        return new FEntry(ByteBuffer.wrap(record), 0);
+    }
+
+    // View of the record at offset in buffer
+    FEntry(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
     }
 
     // Getters and Setters
     public String getFilename() {
-        return filename;
+        int length = 0;
+        while (length < MAX_FILENAME_BYTES && buffer.get(offset + length) != 0) {
+            length++;
+        }
+        byte[] name = new byte[length];
+        buffer.get(offset, name);
+        return new String(name, StandardCharsets.UTF_8);
     }
 
     public void setFilename(String filename) {
-        if (filename.length() > 11) {
-            throw new IllegalArgumentException("Filename cannot be longer than 11 characters.");
-        }
-        this.filename = filename;
+        writeFilename(buffer, offset, filename);
     }
 
     public short getFilesize() {
-        return filesize;
+        return buffer.getShort(offset + FILESIZE_OFFSET);
     }
 
     public void setFilesize(short filesize) {
         if (filesize < 0) {
             throw new IllegalArgumentException("Filesize cannot be negative.");
         }
-        this.filesize = filesize;
+        buffer.putShort(offset + FILESIZE_OFFSET, filesize);
     }
 
     public short getFirstBlock() {
-        return firstBlock;
+        return buffer.getShort(offset + FIRST_BLOCK_OFFSET);
+    }
+
+    public boolean isInline() {
+        return getFirstBlock() == INLINE;
+    }
+
+    static void writeFilename(ByteBuffer buffer, int offset, String filename) {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        //Check filename is max 11 bytes long
+        if (name.length > MAX_FILENAME_BYTES) {
+            throw new IllegalArgumentException("Filename cannot be longer than 11 bytes.");
+        }
+        if (name.length == 0) {
+            throw new IllegalArgumentException("Filename cannot be empty.");
+        }
+        // READ name@id reads a snapshot, so such a name could never be read back
+        if (filename.indexOf('@') >= 0) {
+            throw new IllegalArgumentException("Filename cannot contain '@'.");
+        }
+        byte[] padded = Arrays.copyOf(name, MAX_FILENAME_BYTES);
+        buffer.put(offset, padded);
     }
 }
@@ -0,0 +1,142 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Fixed-size table of packed FEntry records in one ByteBuffer (direct, or a region mapped from
+// the volume file), instead of an array of FEntry objects. Slots are read and written through
+// the index-based accessors; get() returns a flyweight view of a slot.
+public class FEntryTable {
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    public FEntryTable(int capacity) {
+        this(ByteBuffer.allocateDirect(capacity * FEntry.SIZE), capacity);
+    }
+
+    // buffer must hold capacity * FEntry.SIZE bytes starting at its position 0
+    public FEntryTable(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() < capacity * FEntry.SIZE) {
+            throw new IllegalArgumentException("Buffer too small for " + capacity + " entries.");
+        }
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    public static int bytesFor(int capacity) {
+        return capacity * FEntry.SIZE;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // Independent heap copy of the whole table (one bulk copy of the packed records)
+    public FEntryTable copy() {
+        ByteBuffer source = buffer.duplicate();
+        source.clear().limit(bytesFor(capacity));
+        ByteBuffer target = ByteBuffer.allocate(bytesFor(capacity));
+        target.put(source).clear();
+        return new FEntryTable(target, capacity);
+    }
+
+    // Writes the packed records to the channel at position (same layout as in the volume)
+    public void writeTo(FileChannel channel, long position) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        source.clear().limit(bytesFor(capacity));
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    public boolean isFree(int i) {
+        return buffer.get(offset(i)) == 0;
+    }
+
+    public void put(int i, String filename, short filesize, short firstBlock) {
+        int offset = offset(i);
+        FEntry.writeFilename(buffer, offset, filename);
+        buffer.putShort(offset + FEntry.FILESIZE_OFFSET, filesize);
+        buffer.putShort(offset + FEntry.FIRST_BLOCK_OFFSET, firstBlock);
+        clearInline(i);
+    }
+
+    public void clear(int i) {
+        int offset = offset(i);
+        for (int b = 0; b < FEntry.SIZE; b++) {
+            buffer.put(offset + b, (byte) 0);
+        }
+    }
+
+    // Live view of slot i
+    public FEntry get(int i) {
+        return new FEntry(buffer, offset(i));
+    }
+
+    // Standalone copy of slot i (inline contents included), unaffected by later changes to the table
+    public FEntry copyOf(int i) {
+        return FEntry.copyOf(buffer, offset(i));
+    }
+
+    public String getFilename(int i) {
+        return get(i).getFilename();
+    }
+
+    public short getFilesize(int i) {
+        return buffer.getShort(offset(i) + FEntry.FILESIZE_OFFSET);
+    }
+
+    public void setFilesize(int i, short filesize) {
+        if (filesize < 0) {
+            throw new IllegalArgumentException("Filesize cannot be negative.");
+        }
+        buffer.putShort(offset(i) + FEntry.FILESIZE_OFFSET, filesize);
+    }
+
+    public short getFirstBlock(int i) {
+        return buffer.getShort(offset(i) + FEntry.FIRST_BLOCK_OFFSET);
+    }
+
+    public void setFirstBlock(int i, short firstBlock) {
+        buffer.putShort(offset(i) + FEntry.FIRST_BLOCK_OFFSET, firstBlock);
+    }
+
+    public boolean isInline(int i) {
+        return getFirstBlock(i) == FEntry.INLINE;
+    }
+
+    // Copies the first length bytes of slot i's inline area into target at targetOffset
+    public void readInline(int i, byte[] target, int targetOffset, int length) {
+        checkInlineLength(length);
+        buffer.get(offset(i) + FEntry.INLINE_OFFSET, target, targetOffset, length);
+    }
+
+    // Replaces slot i's inline area with contents, zero padded
+    public void writeInline(int i, byte[] contents) {
+        checkInlineLength(contents.length);
+        clearInline(i);
+        buffer.put(offset(i) + FEntry.INLINE_OFFSET, contents);
+    }
+
+    public void clearInline(int i) {
+        int offset = offset(i) + FEntry.INLINE_OFFSET;
+        for (int b = 0; b < FEntry.INLINE_BYTES; b++) {
+            buffer.put(offset + b, (byte) 0);
+        }
+    }
+
+    private static void checkInlineLength(int length) {
+        if (length < 0 || length > FEntry.INLINE_BYTES) {
+            throw new IllegalArgumentException("Inline contents cannot be longer than " + FEntry.INLINE_BYTES + " bytes.");
+        }
+    }
+
+    private int offset(int i) {
+        if (i < 0 || i >= capacity) {
+            throw new IndexOutOfBoundsException("FEntry " + i + " out of range");
+        }
+        return i * FEntry.SIZE;
+    }
+}
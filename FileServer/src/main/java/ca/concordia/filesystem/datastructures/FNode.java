@@ -1,30 +1,46 @@
 package ca.concordia.filesystem.datastructures;
 
+import java.nio.ByteBuffer;
+
+// Flyweight over one packed FNode record:
+//   blockIndex  4 bytes (negative = free)
+//   next        4 bytes (-1 = end of chain)
 public class FNode {
 
-    private int blockIndex;
-    private int next;
+    public static final int SIZE = 8;
+
+    static final int NEXT_OFFSET = 4;
+
+    private final ByteBuffer buffer;
+    private final int offset;
 
     public FNode(int blockIndex) {
-        this.blockIndex = blockIndex;
-        this.next = -1;
+        this(ByteBuffer.allocate(SIZE), 0);
+        setBlockIndex(blockIndex);
+        setNext(-1);
+    }
+
+    // View of the record at offset in buffer
+    FNode(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
     }
 
     // Getters and Setter
 
     public int getBlockIndex(){
-        return blockIndex;
+        return buffer.getInt(offset);
     }
 
     public int getNext(){
-        return next;
+        return buffer.getInt(offset + NEXT_OFFSET);
     }
 
     public void setBlockIndex(int blockIndex){
-        this.blockIndex = blockIndex;
+        buffer.putInt(offset, blockIndex);
     }
 
     public void setNext(int next){
-        this.next = next;
+        buffer.putInt(offset + NEXT_OFFSET, next);
     }
 }
@@ -0,0 +1,79 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Fixed-size table of packed FNode records (see FEntryTable); FNode i describes data block i.
+public class FNodeTable {
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    public FNodeTable(int capacity) {
+        this(ByteBuffer.allocateDirect(capacity * FNode.SIZE), capacity);
+    }
+
+    // buffer must hold capacity * FNode.SIZE bytes starting at its position 0
+    public FNodeTable(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() < capacity * FNode.SIZE) {
+            throw new IllegalArgumentException("Buffer too small for " + capacity + " nodes.");
+        }
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    public static int bytesFor(int capacity) {
+        return capacity * FNode.SIZE;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // Independent heap copy of the whole table (one bulk copy of the packed records)
+    public FNodeTable copy() {
+        ByteBuffer source = buffer.duplicate();
+        source.clear().limit(bytesFor(capacity));
+        ByteBuffer target = ByteBuffer.allocate(bytesFor(capacity));
+        target.put(source).clear();
+        return new FNodeTable(target, capacity);
+    }
+
+    // Writes the packed records to the channel at position (same layout as in the volume)
+    public void writeTo(FileChannel channel, long position) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        source.clear().limit(bytesFor(capacity));
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    // Live view of node i
+    public FNode get(int i) {
+        return new FNode(buffer, offset(i));
+    }
+
+    public int getBlockIndex(int i) {
+        return buffer.getInt(offset(i));
+    }
+
+    public void setBlockIndex(int i, int blockIndex) {
+        buffer.putInt(offset(i), blockIndex);
+    }
+
+    public int getNext(int i) {
+        return buffer.getInt(offset(i) + FNode.NEXT_OFFSET);
+    }
+
+    public void setNext(int i, int next) {
+        buffer.putInt(offset(i) + FNode.NEXT_OFFSET, next);
+    }
+
+    private int offset(int i) {
+        if (i < 0 || i >= capacity) {
+            throw new IndexOutOfBoundsException("FNode " + i + " out of range");
+        }
+        return i * FNode.SIZE;
+    }
+}
@@ -0,0 +1,35 @@
+package ca.concordia.filesystem.events;
+
+public class FileEvent {
+
+    public enum Type {
+        CREATED,
+        WRITTEN,
+        DELETED,
+        // the subscriber fell too far behind and events were dropped; re-LIST to resync
+        OVERFLOW
+    }
+
+    private final Type type;
+    private final String filename;
+
+    public FileEvent(Type type, String filename) {
+        this.type = type;
+        this.filename = filename;
+    }
+
+    // Getters
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + filename;
+    }
+}
@@ -0,0 +1,40 @@
+package ca.concordia.filesystem.events;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Fan-out of filesystem mutations to WATCH subscribers.
+// publish() never blocks the mutating thread: each subscription buffers (and coalesces) its
+// own pending events, and a slow consumer only ever loses its own events.
+public class FileEventBus {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // pattern is an exact filename, or a prefix when it ends with '*'
+    public Subscription subscribe(String pattern) {
+        return subscribe(pattern, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public Subscription subscribe(String pattern, int queueCapacity) {
+        Subscription subscription = new Subscription(this, pattern, queueCapacity);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void publish(FileEvent.Type type, String filename) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.matches(filename)) {
+                subscription.offer(type, filename);
+            }
+        }
+    }
+
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+}
@@ -0,0 +1,129 @@
+package ca.concordia.filesystem.events;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// One WATCH registration with its own bounded queue of pending events.
+// Pending events are kept per filename, so a burst of changes to the same file collapses into
+// a single event. If more than queueCapacity distinct files are pending, the queue is dropped
+// and the consumer gets a single OVERFLOW event instead.
+//
+// A consumer either blocks in take(), or (to serve several subscriptions from one thread) sets
+// a listener, which is run after every new event, and drains with poll().
+public class Subscription {
+
+    private final FileEventBus bus;
+    private final String pattern;
+    private final boolean prefixMatch;
+    private final String match;
+    private final int queueCapacity;
+
+    // filename -> latest (coalesced) event type, in arrival order
+    private final LinkedHashMap<String, FileEvent.Type> pending = new LinkedHashMap<>();
+    private boolean overflowed = false;
+    private boolean cancelled = false;
+    private volatile Runnable listener;
+
+    Subscription(FileEventBus bus, String pattern, int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive.");
+        }
+        this.bus = bus;
+        this.pattern = pattern;
+        this.prefixMatch = pattern.endsWith("*");
+        this.match = prefixMatch ? pattern.substring(0, pattern.length() - 1) : pattern;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    boolean matches(String filename) {
+        return prefixMatch ? filename.startsWith(match) : filename.equals(match);
+    }
+
+    void offer(FileEvent.Type type, String filename) {
+        synchronized (this) {
+            if (cancelled || overflowed) {
+                return;
+            }
+            queue(type, filename);
+            notifyAll();
+        }
+        Runnable l = listener;
+        if (l != null) {
+            l.run();
+        }
+    }
+
+    private void queue(FileEvent.Type type, String filename) {
+        FileEvent.Type previous = pending.remove(filename);
+        FileEvent.Type merged = (previous == null) ? type : coalesce(previous, type);
+        if (merged != null) {
+            pending.put(filename, merged); // re-inserted at the tail: order of last change
+        }
+
+        if (pending.size() > queueCapacity) {
+            pending.clear();
+            overflowed = true;
+        }
+    }
+
+    // Run (on the publishing thread) after each event that is queued
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    // Blocks until an event is available; returns null once the subscription is cancelled
+    public synchronized FileEvent take() throws InterruptedException {
+        while (!cancelled && !overflowed && pending.isEmpty()) {
+            wait();
+        }
+        return poll();
+    }
+
+    // The next event, or null when none is pending or the subscription is cancelled
+    public synchronized FileEvent poll() {
+        if (cancelled || (!overflowed && pending.isEmpty())) {
+            return null;
+        }
+        if (overflowed) {
+            overflowed = false;
+            return new FileEvent(FileEvent.Type.OVERFLOW, pattern);
+        }
+
+        Iterator<Map.Entry<String, FileEvent.Type>> it = pending.entrySet().iterator();
+        Map.Entry<String, FileEvent.Type> head = it.next();
+        it.remove();
+        return new FileEvent(head.getValue(), head.getKey());
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    public void cancel() {
+        bus.unsubscribe(this);
+        synchronized (this) {
+            cancelled = true;
+            pending.clear();
+            notifyAll();
+        }
+    }
+
+    // Net effect of two consecutive changes to the same file; null means they cancel out
+    private static FileEvent.Type coalesce(FileEvent.Type previous, FileEvent.Type next) {
+        if (previous == FileEvent.Type.CREATED && next == FileEvent.Type.WRITTEN) {
+            return FileEvent.Type.CREATED;
+        }
+        if (previous == FileEvent.Type.CREATED && next == FileEvent.Type.DELETED) {
+            return null;
+        }
+        if (previous == FileEvent.Type.DELETED && next == FileEvent.Type.CREATED) {
+            return FileEvent.Type.WRITTEN; // replaced by a new file with the same name
+        }
+        return next;
+    }
+}
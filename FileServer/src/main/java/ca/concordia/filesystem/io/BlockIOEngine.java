@@ -0,0 +1,211 @@
+package ca.concordia.filesystem.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Asynchronous block I/O for the data region of the volume.
+// Callers from every connection submit single-block reads/writes and get a future back. One
+// dispatcher thread owns the FileChannel: it drains everything queued so far, sorts it by block
+// and turns each run of adjacent blocks of the same kind into one vectored (scatter/gather)
+// read or write. Futures are completed on a small completion pool, so callers' continuations
+// never run on (and never stall) the dispatcher. A run that fails, whatever the exception,
+// fails only its own futures; the dispatcher carries on with the next one.
+public class BlockIOEngine {
+
+    public static final int DEFAULT_COMPLETION_THREADS = 2;
+
+    // upper bound for one vectored call
+    private static final int MAX_RUN_BLOCKS = 64;
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService completions;
+    private final Thread dispatcher;
+    private final AtomicLong seq = new AtomicLong();
+    private volatile boolean closed = false;
+
+    // statistics, e.g. to see how much merging happens under load
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong systemCalls = new AtomicLong();
+
+    public BlockIOEngine(FileChannel channel, int blockSize) {
+        this(channel, blockSize, DEFAULT_COMPLETION_THREADS);
+    }
+
+    public BlockIOEngine(FileChannel channel, int blockSize, int completionThreads) {
+        this.channel = channel;
+        this.blockSize = blockSize;
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(completionThreads, r -> {
+            Thread t = new Thread(r, "block-io-completion");
+            t.setDaemon(true);
+            return t;
+        });
+        // started up front so the server's thread count (STATS) does not creep up with the first requests
+        pool.prestartAllCoreThreads();
+        this.completions = pool;
+        this.dispatcher = new Thread(this::dispatchLoop, "block-io-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    // Reads block into dst (up to dst.remaining() bytes, at most one block)
+    public CompletableFuture<Void> read(int block, ByteBuffer dst) {
+        return submit(false, block, dst);
+    }
+
+    // Writes src (at most one block) at the start of block
+    public CompletableFuture<Void> write(int block, ByteBuffer src) {
+        return submit(true, block, src);
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    public long systemCallCount() {
+        return systemCalls.get();
+    }
+
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        completions.shutdown();
+    }
+
+    private CompletableFuture<Void> submit(boolean write, int block, ByteBuffer buffer) {
+        if (buffer.remaining() > blockSize) {
+            throw new IllegalArgumentException("Request larger than one block.");
+        }
+        if (block < 0) {
+            throw new IllegalArgumentException("Negative block " + block);
+        }
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("I/O engine is closed"));
+        }
+        Request request = new Request(write, block, buffer, seq.getAndIncrement());
+        requests.incrementAndGet();
+        queue.add(request);
+        return request.future;
+    }
+
+    private void dispatchLoop() {
+        List<Request> batch = new ArrayList<>();
+        Comparator<Request> order = Comparator.<Request>comparingInt(r -> r.block).thenComparingLong(r -> r.seq);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                // same block keeps submission order, so a write followed by a read stays correct
+                batch.sort(order);
+
+                int start = 0;
+                while (start < batch.size()) {
+                    int end = runEnd(batch, start);
+                    execute(batch.subList(start, end));
+                    start = end;
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closing
+        }
+        for (Request request : batch) {
+            request.future.completeExceptionally(new IOException("I/O engine is closed"));
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new IOException("I/O engine is closed"));
+        }
+    }
+
+    // Requests [start, end) are the same kind on consecutive blocks, all but the last full blocks
+    private int runEnd(List<Request> batch, int start) {
+        int end = start + 1;
+        while (end < batch.size() && end - start < MAX_RUN_BLOCKS) {
+            Request previous = batch.get(end - 1);
+            Request next = batch.get(end);
+            if (next.write != previous.write
+                    || next.block != previous.block + 1
+                    || previous.length != blockSize) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    private void execute(List<Request> run) {
+        Request first = run.get(0);
+        ByteBuffer[] buffers = new ByteBuffer[run.size()];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = run.get(i).buffer;
+            remaining += buffers[i].remaining();
+        }
+
+        Throwable failure = null;
+        try {
+            channel.position((long) first.block * blockSize);
+            while (remaining > 0) {
+                long n = first.write ? channel.write(buffers) : channel.read(buffers);
+                systemCalls.incrementAndGet();
+                if (n < 0) {
+                    // reading past the end of the file: the rest of the blocks are zeroes
+                    for (ByteBuffer buffer : buffers) {
+                        while (buffer.hasRemaining()) buffer.put((byte) 0);
+                    }
+                    break;
+                }
+                remaining -= n;
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+
+        Throwable error = failure;
+        List<Request> done = new ArrayList<>(run);
+        Runnable complete = () -> {
+            for (Request request : done) {
+                if (error == null) {
+                    request.future.complete(null);
+                } else {
+                    request.future.completeExceptionally(error);
+                }
+            }
+        };
+        try {
+            completions.execute(complete);
+        } catch (RejectedExecutionException e) {
+            complete.run(); // closing: nobody else will complete them
+        }
+    }
+
+    private static class Request {
+        final boolean write;
+        final int block;
+        final ByteBuffer buffer;
+        final int length;
+        final long seq;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Request(boolean write, int block, ByteBuffer buffer, long seq) {
+            this.write = write;
+            this.block = block;
+            this.buffer = buffer;
+            this.length = buffer.remaining();
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.events.FileEvent;
+import ca.concordia.filesystem.events.Subscription;
+import ca.concordia.server.protocol.ResponseWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Pushes the events of every WATCH on one connection as "EVENT <type> <filename>" lines, from a
+// single thread started by the first add(). Each subscription's listener wakes the thread, which
+// then takes one event from each subscription in turn until all of them are drained, so a busy
+// pattern cannot starve the others.
+//
+// The pusher has its own ResponseWriter on the connection's stream; whole lines are written
+// atomically, so its lines never mix with the request handler's replies.
+class EventPusher {
+
+    private final OutputStream output;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private Thread thread;
+    // guarded by this
+    private boolean signalled = false;
+    private boolean closed = false;
+
+    EventPusher(OutputStream output) {
+        this.output = output;
+    }
+
+    // Starts pushing the subscription's events; call it once the WATCH reply has been sent
+    synchronized void add(Subscription subscription) {
+        if (closed) {
+            return;
+        }
+        subscriptions.add(subscription);
+        subscription.setListener(this::signal);
+        if (thread == null) {
+            thread = new Thread(this::run, "event-pusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        // events may already be waiting from before the reply went out
+        signal();
+    }
+
+    void remove(Subscription subscription) {
+        subscriptions.remove(subscription);
+        subscription.setListener(null);
+    }
+
+    // Stops the thread; the caller cancels the subscriptions
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void signal() {
+        signalled = true;
+        notifyAll();
+    }
+
+    private void run() {
+        ResponseWriter out = new ResponseWriter(output);
+        try {
+            while (awaitSignal()) {
+                boolean sent;
+                do {
+                    sent = false;
+                    for (Subscription subscription : subscriptions) {
+                        FileEvent event = subscription.poll();
+                        if (event != null) {
+                            out.write(ResponseWriter.EVENT).write(event.getType().name())
+                                    .write(' ').write(event.getFilename()).endLine();
+                            sent = true;
+                        }
+                    }
+                } while (sent);
+            }
+        } catch (IOException e) {
+            // client is gone
+            for (Subscription subscription : subscriptions) {
+                subscription.cancel();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    // Waits for new events; false once closed. The flag is cleared before draining, so an event
+    // that arrives during a drain is picked up on the next round.
+    private synchronized boolean awaitSignal() throws InterruptedException {
+        while (!signalled && !closed) {
+            wait();
+        }
+        signalled = false;
+        return !closed;
+    }
+}
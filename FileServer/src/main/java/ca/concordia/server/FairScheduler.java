@@ -0,0 +1,208 @@
+package ca.concordia.server;
+
+import ca.concordia.tracing.Phase;
+import ca.concordia.tracing.Trace;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// Sits between the protocol handler and FileSystemManager so that one noisy client cannot
+// starve the others.
+//
+//  - every connection registers as a Client with its own ops/sec and bytes/sec TokenBuckets;
+//    a client over its budget is delayed on its own thread before its request is queued
+//  - queued operations are run by a small pool of workers in weighted fair order
+//    (start-time fair queueing: each op gets a virtual finish tag of start + cost / weight,
+//    and the lowest tag runs first, so a client with many queued ops only gets its share)
+//  - reads and small writes are served before bulk writes; a bulk write that has waited
+//    longer than maxBulkDelayMillis goes next anyway, so bulk writes are never starved
+//  - READ sizes are only known afterwards, so the handler charges them with Client.charge()
+//    and the client's next request pays for them
+//  - shutdown() lets running ops finish and fails the queued ones, so no caller is left waiting
+//  - the caller's Trace travels with the op to the worker, which charges the time spent
+//    waiting to QUEUE and everything the op does outside block I/O to METADATA
+public class FairScheduler {
+
+    public enum OpClass {
+        READ,
+        WRITE,
+        BULK
+    }
+
+    // cost of an operation: 1 unit plus 1 per KiB moved
+    private static final double BYTES_PER_COST_UNIT = 1024;
+
+    private final long maxBulkDelayNanos;
+    private final Comparator<Task<?>> byFinishTag =
+            Comparator.<Task<?>>comparingDouble(t -> t.finishTag).thenComparingLong(t -> t.seq);
+    private final PriorityQueue<Task<?>> interactive = new PriorityQueue<>(byFinishTag);
+    private final PriorityQueue<Task<?>> bulk = new PriorityQueue<>(byFinishTag);
+    private final Thread[] workers;
+
+    // guarded by this
+    private double virtualTime = 0;
+    private long nextSeq = 0;
+    private boolean shutdown = false;
+
+    public FairScheduler(int workerCount, long maxBulkDelayMillis) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Need at least one worker.");
+        }
+        this.maxBulkDelayNanos = maxBulkDelayMillis * 1_000_000;
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::workerLoop, "fs-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    // Rates <= 0 mean unlimited; the bursts allow one second worth of traffic
+    public Client register(double weight, double opsPerSecond, double bytesPerSecond) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive.");
+        }
+        return new Client(weight, new TokenBucket(opsPerSecond, opsPerSecond),
+                new TokenBucket(bytesPerSecond, bytesPerSecond));
+    }
+
+    public synchronized int queuedCount() {
+        return interactive.size() + bulk.size();
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for (Task<?> task : interactive) task.future.cancel(false);
+            for (Task<?> task : bulk) task.future.cancel(false);
+            interactive.clear();
+            bulk.clear();
+            notifyAll();
+        }
+    }
+
+    private synchronized <T> void enqueue(Task<T> task) {
+        if (shutdown) {
+            throw new IllegalStateException("Scheduler is shut down.");
+        }
+        Client client = task.client;
+        double start = Math.max(virtualTime, client.lastFinishTag);
+        task.finishTag = start + task.cost / client.weight;
+        task.seq = nextSeq++;
+        client.lastFinishTag = task.finishTag;
+
+        (task.opClass == OpClass.BULK ? bulk : interactive).add(task);
+        notify();
+    }
+
+    private synchronized Task<?> next() throws InterruptedException {
+        while (!shutdown && interactive.isEmpty() && bulk.isEmpty()) {
+            wait();
+        }
+        if (shutdown) {
+            return null;
+        }
+
+        Task<?> task;
+        if (interactive.isEmpty()) {
+            task = bulk.poll();
+        } else if (!bulk.isEmpty() && System.nanoTime() - bulk.peek().enqueuedAt > maxBulkDelayNanos) {
+            task = bulk.poll();
+        } else {
+            task = interactive.poll();
+        }
+        virtualTime = Math.max(virtualTime, task.finishTag - task.cost / task.client.weight);
+        return task;
+    }
+
+    private void workerLoop() {
+        try {
+            Task<?> task;
+            while ((task = next()) != null) {
+                task.future.run(); // exceptions are captured in the future
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Per-connection handle: its weight, rate limits and position in virtual time
+    public class Client {
+        private final double weight;
+        private final TokenBucket ops;
+        private final TokenBucket bytes;
+        private double lastFinishTag = 0; // guarded by the scheduler
+
+        private Client(double weight, TokenBucket ops, TokenBucket bytes) {
+            this.weight = weight;
+            this.ops = ops;
+            this.bytes = bytes;
+        }
+
+        // Runs op on a worker in fair order and waits for it; op's exception is rethrown as is
+        public <T> T execute(OpClass opClass, long byteCount, Callable<T> op) throws Exception {
+            Trace trace = Trace.current();
+            trace.mark(Phase.PARSE);
+            ops.acquire(1);
+            bytes.acquire(byteCount);
+            trace.mark(Phase.THROTTLE);
+
+            Callable<T> call = trace.isActive() ? traced(trace, op) : op;
+            Task<T> task = new Task<>(this, opClass, 1 + byteCount / BYTES_PER_COST_UNIT, new FutureTask<>(call));
+            enqueue(task);
+            try {
+                return task.future.get();
+            } catch (CancellationException e) {
+                throw new IllegalStateException("Scheduler is shut down.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+
+        // Takes bytes that were only known after the op ran (e.g. a READ's size) from the
+        // client's byte budget without waiting; its next request is delayed instead
+        public void charge(long byteCount) {
+            bytes.reserve(byteCount);
+        }
+    }
+
+    // Runs op with its trace attached to the worker thread. The marks happen before the future
+    // completes, so the connection thread never touches the trace at the same time.
+    private static <T> Callable<T> traced(Trace trace, Callable<T> op) {
+        return () -> {
+            trace.mark(Phase.QUEUE);
+            trace.attach();
+            try {
+                return op.call();
+            } finally {
+                trace.mark(Phase.METADATA);
+                trace.detach();
+            }
+        };
+    }
+
+    private static class Task<T> {
+        final Client client;
+        final OpClass opClass;
+        final double cost;
+        final FutureTask<T> future;
+        final long enqueuedAt = System.nanoTime();
+        double finishTag;
+        long seq;
+
+        Task(Client client, OpClass opClass, double cost, FutureTask<T> future) {
+            this.client = client;
+            this.opClass = opClass;
+            this.cost = cost;
+            this.future = future;
+        }
+    }
+}
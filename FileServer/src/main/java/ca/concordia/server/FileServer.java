@@ -1,49 +1,162 @@
 package ca.concordia.server;
 
+import ca.concordia.filesystem.ConsistencyChecker;
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.Snapshot;
+import ca.concordia.filesystem.datastructures.FEntry;
+import ca.concordia.filesystem.events.FileEvent;
+import ca.concordia.filesystem.events.Subscription;
+
+import ca.concordia.server.protocol.Command;
+import ca.concordia.server.protocol.CommandReader;
+import ca.concordia.server.protocol.ConnectionException;
+import ca.concordia.server.protocol.ResponseWriter;
+import ca.concordia.server.tls.TlsConnection;
+import ca.concordia.server.tls.TlsContext;
+
+import ca.concordia.tracing.Phase;
+import ca.concordia.tracing.Trace;
+import ca.concordia.tracing.Tracer;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import com.sun.management.UnixOperatingSystemMXBean;
+
 // Commands:
 //   CREATE <filename>
 //   DELETE <filename>
 //   WRITE <filename> <content>
-//   READ  <filename>
-//   LIST
+//   READ  <filename>[@snapshot]
+//   LIST [-l] [prefix] [cursor] [limit]
+//   STAT <filename>
+//   WATCH <filename|prefix*>
+//   UNWATCH [filename|prefix*]
+//   SNAPSHOT [CREATE|LIST|DROP <id>|EXPORT <id>]
+//   FSCK [START]
+//   STATS
 //   QUIT
+//
+// LIST arguments are positional; use "-" to skip prefix or cursor. With -l every name is
+// followed by its size ("name:size"). When a limit is given and more names remain, the line
+// ends with "NEXT=<cursor>"; pass that cursor back to get the following page.
+//
+// STAT answers "<filename> size=N firstBlock=N", or "firstBlock=inline" for a file small enough
+// to be kept in its FEntry.
+//
+// WATCH turns the connection into an event connection: from then on the server pushes
+// "EVENT <CREATED|WRITTEN|DELETED> <filename>" lines whenever a matching file changes, and only
+// WATCH, UNWATCH and QUIT are accepted (anything else gets an error), so a client that reads
+// one response line per command never sees an EVENT line on its command connection. Responses
+// on an event connection never start with "EVENT". A client that falls behind gets
+// "EVENT OVERFLOW <pattern>" and should re-LIST. UNWATCH without an argument drops every watch
+// of the connection; the connection stays in event mode until it is closed. The WATCH reply is
+// always sent before any event of that watch, and one pusher thread per connection serves all
+// of its watches (see EventPusher).
+//
+// SNAPSHOT (or SNAPSHOT CREATE) freezes the whole volume and answers with its id; READ name@id
+// then reads the file as it was at that point (so filenames cannot contain '@'). EXPORT writes
+// the snapshot as a volume image next to the live one in the background; LIST shows
+// "id:exportState" for every snapshot.
+//
+// FSCK reports the state/progress of the last background consistency check; FSCK START runs a
+// new one. In fast-startup mode one is started as soon as the port is open.
+//
+// STATS answers "STATS connections=N threads=N fds=N heapKB=N files=N freeBlocks=N" (fds is -1
+// where the JVM cannot count them), so a soak test can watch the server for leaks.
+//
+// With a Tracer enabled, traced requests are timed per Phase (parse, throttle, queue, lock,
+// metadata, I/O, response) and the ones over its slow threshold are logged with that breakdown.
+//
+// With a TlsContext every connection speaks TLS (see TlsConnection); the protocol is the same.
 
 public class FileServer {
 
+    private static final int MAX_FILENAME_BYTES = 11;
+
+    // every watch keeps a queue of pending events
+    private static final int MAX_WATCHES_PER_CONNECTION = 8;
+
     // our file system (backed by the single .dat file)
     private final FileSystemManager fsManager;
     // TCP port to listen on
     private final int port;
+    // open the port right away and load metadata lazily, with an fsck in the background
+    private final boolean fastStartup;
     // readers–writer lock: many readers or a single writer
     private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    // workers, bulk handling and per-client weights/limits of the scheduler
+    private final SchedulingConfig scheduling;
+    // every filesystem operation is queued here (fair order, per-client limits) before it takes rwLock
+    private final FairScheduler scheduler;
+    // per-request phase timing and slow-op log (off unless configured)
+    private final Tracer tracer;
+    // null: plain TCP
+    private final TlsContext tls;
+    // client connections currently being handled (for STATS)
+    private final AtomicInteger openConnections = new AtomicInteger();
 
     public FileServer(int port, String fileSystemName, int totalSize) {
+        this(port, fileSystemName, totalSize, false);
+    }
+
+    public FileServer(int port, String fileSystemName, int totalSize, boolean fastStartup) {
+        this(port, fileSystemName, totalSize, fastStartup, Tracer.disabled());
+    }
+
+    public FileServer(int port, String fileSystemName, int totalSize, boolean fastStartup, Tracer tracer) {
+        this(port, fileSystemName, totalSize, fastStartup, tracer, null);
+    }
+
+    public FileServer(int port, String fileSystemName, int totalSize, boolean fastStartup, Tracer tracer,
+                      TlsContext tls) {
+        this(port, fileSystemName, totalSize, fastStartup, tracer, tls, new SchedulingConfig());
+    }
+
+    public FileServer(int port, String fileSystemName, int totalSize, boolean fastStartup, Tracer tracer,
+                      TlsContext tls, SchedulingConfig scheduling) {
         this.port = port;
-        // spin up the fake disk with the given size
-        this.fsManager = new FileSystemManager(fileSystemName, totalSize);
+        this.fastStartup = fastStartup;
+        this.tracer = tracer;
+        this.tls = tls;
+        this.scheduling = scheduling;
+        this.scheduler = new FairScheduler(scheduling.getWorkerThreads(), scheduling.getMaxBulkDelayMillis());
+        // spin up the fake disk with the given size (in fast mode without reading its metadata)
+        this.fsManager = new FileSystemManager(fileSystemName, totalSize, fastStartup);
     }
 
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Server started. Listening on port " + port + "...");
+        // a (blocking) channel rather than a ServerSocket, so TLS connections can drive their
+        // SSLEngine straight from the SocketChannel
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server started. Listening on port " + port + (tls != null ? " (TLS)" : "") + "...");
+
+            if (fastStartup) {
+                startConsistencyCheck();
+            }
 
             // accept loop – each client goes to its own thread
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("New client: " + clientSocket);
+                SocketChannel clientChannel = serverChannel.accept();
+                System.out.println("New client: " + clientChannel.socket());
 
-                Thread clientThread = new Thread(() -> handleClient(clientSocket));
+                Thread clientThread = new Thread(() -> handleClient(clientChannel));
                 clientThread.start();
             }
         } catch (IOException e) {
@@ -52,166 +165,540 @@ public class FileServer {
         }
     }
 
-    // Handles exactly one client connection
-    private void handleClient(Socket clientSocket) {
+    // Handles exactly one client connection.
+    // Requests are parsed in place by CommandReader and answered through a ResponseWriter, so
+    // the per-request path does not allocate Strings for parsing or for building responses.
+    private void handleClient(SocketChannel clientChannel) {
+        // WATCH subscriptions of this connection, cancelled when it goes away
+        List<Subscription> watches = new ArrayList<>();
+        // set by the first WATCH: the connection only carries events from then on
+        boolean eventMode = false;
+        EventPusher pusher = null;
+        SchedulingConfig.ClientLimits limits = scheduling.limitsFor(clientChannel.socket().getInetAddress());
+        FairScheduler.Client client =
+                scheduler.register(limits.getWeight(), limits.getOpsPerSecond(), limits.getBytesPerSecond());
+        openConnections.incrementAndGet();
         try (
-                Socket socket = clientSocket;
-                BufferedReader reader =
-                        new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter writer =
-                        new PrintWriter(socket.getOutputStream(), true)
+                Socket socket = clientChannel.socket();
+                // the TLS handshake runs here, so a slow client cannot hold up the accept loop
+                TlsConnection tlsConnection = (tls != null) ? tls.open(clientChannel) : null;
+                OutputStream output = (tlsConnection != null) ? tlsConnection.getOutputStream() : socket.getOutputStream()
         ) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    writer.println("ERROR: empty command");
-                    continue;
-                }
+            InputStream input = (tlsConnection != null) ? tlsConnection.getInputStream() : socket.getInputStream();
+            CommandReader request = new CommandReader(input);
+            ResponseWriter out = new ResponseWriter(output);
 
-                // split into at most 3 parts so WRITE content can have spaces
-                String[] parts = line.split(" ", 3);
-                String command = parts[0].toUpperCase();
+            while (request.next()) {
+                Trace trace = tracer.begin();
+                Command command = request.command();
 
                 try {
-                    switch (command) {
-                        case "CREATE": {
-                            if (parts.length < 2) {
-                                writer.println("ERROR: missing filename");
+                    if (eventMode && command != Command.WATCH && command != Command.UNWATCH && command != Command.QUIT) {
+                        out.line(ResponseWriter.EVENT_CONNECTION);
+                    } else {
+                        switch (command) {
+                            case EMPTY:
+                                out.line(ResponseWriter.EMPTY_COMMAND);
                                 break;
-                            }
-                            String filename = parts[1];
-                            if (filename.length() > 11) {
-                                writer.println("ERROR: filename too large");
+
+                            case TOO_LONG:
+                                out.line(ResponseWriter.COMMAND_TOO_LONG);
                                 break;
-                            }
 
-                            rwLock.writeLock().lock(); // exclusive
-                            try {
-                                fsManager.createFile(filename);
-                            } finally {
-                                rwLock.writeLock().unlock();
-                            }
+                            case CREATE: {
+                                if (!checkFilename(request, out)) break;
+                                String filename = request.filename();
 
-                            writer.println("SUCCESS: File '" + filename + "' created.");
-                            break;
-                        }
+                                client.execute(FairScheduler.OpClass.WRITE, 0, () -> {
+                                    rwLock.writeLock().lock(); // exclusive
+                                    Trace.current().mark(Phase.LOCK);
+                                    try {
+                                        fsManager.createFile(filename);
+                                    } finally {
+                                        rwLock.writeLock().unlock();
+                                    }
+                                    return null;
+                                });
 
-                        case "WRITE": {
-                            if (parts.length < 2) {
-                                writer.println("ERROR: missing filename");
+                                out.write(ResponseWriter.SUCCESS_FILE);
+                                request.writeFilename(out);
+                                out.write(ResponseWriter.CREATED).endLine();
                                 break;
                             }
-                            String filename = parts[1];
-                            if (filename.length() > 11) {
-                                writer.println("ERROR: filename too large");
+
+                            case WRITE: {
+                                if (!checkFilename(request, out)) break;
+                                String filename = request.filename();
+                                byte[] data = request.content();
+
+                                FairScheduler.OpClass opClass = (data.length > scheduling.getBulkWriteBytes())
+                                        ? FairScheduler.OpClass.BULK : FairScheduler.OpClass.WRITE;
+                                client.execute(opClass, data.length, () -> {
+                                    rwLock.writeLock().lock();
+                                    Trace.current().mark(Phase.LOCK);
+                                    try {
+                                        fsManager.writeFile(filename, data);
+                                    } finally {
+                                        rwLock.writeLock().unlock();
+                                    }
+                                    return null;
+                                });
+
+                                out.write(ResponseWriter.SUCCESS_FILE);
+                                request.writeFilename(out);
+                                out.write(ResponseWriter.WRITTEN).endLine();
                                 break;
                             }
-                            String content = (parts.length >= 3) ? parts[2] : "";
-                            byte[] data = content.getBytes(StandardCharsets.UTF_8);
-
-                            rwLock.writeLock().lock();
-                            try {
-                                fsManager.writeFile(filename, data);
-                            } finally {
-                                rwLock.writeLock().unlock();
-                            }
 
-                            writer.println("SUCCESS: File '" + filename + "' written.");
-                            break;
-                        }
+                            case READ: {
+                                if (!request.hasFilename()) {
+                                    out.line(ResponseWriter.MISSING_FILENAME);
+                                    break;
+                                }
+                                String target = request.filename();
+                                int at = target.lastIndexOf('@');
+                                if (at < 0 && !checkFilename(request, out)) break;
 
-                        case "READ": {
-                            if (parts.length < 2) {
-                                writer.println("ERROR: missing filename");
+                                String filename = (at < 0) ? target : target.substring(0, at);
+                                int snapshotId = -1;
+                                if (at >= 0) {
+                                    if (filename.getBytes(StandardCharsets.UTF_8).length > MAX_FILENAME_BYTES) {
+                                        out.line(ResponseWriter.FILENAME_TOO_LARGE);
+                                        break;
+                                    }
+                                    snapshotId = parseSnapshotId(target.substring(at + 1));
+                                    if (snapshotId < 0) {
+                                        out.line(ResponseWriter.INVALID_SNAPSHOT);
+                                        break;
+                                    }
+                                }
+                                int snapshot = snapshotId;
+
+                                byte[] data = client.execute(FairScheduler.OpClass.READ, 0, () -> {
+                                    rwLock.readLock().lock();
+                                    Trace.current().mark(Phase.LOCK);
+                                    try {
+                                        return (snapshot < 0) ? fsManager.readFile(filename)
+                                                : fsManager.readFile(filename, snapshot);
+                                    } finally {
+                                        rwLock.readLock().unlock();
+                                    }
+                                });
+
+                                client.charge(data.length);
+
+                                // send file contents as a single line, bytes as stored
+                                out.write(data).endLine();
                                 break;
                             }
-                            String filename = parts[1];
-                            if (filename.length() > 11) {
-                                writer.println("ERROR: filename too large");
+
+                            case DELETE: {
+                                if (!checkFilename(request, out)) break;
+                                String filename = request.filename();
+
+                                client.execute(FairScheduler.OpClass.WRITE, 0, () -> {
+                                    rwLock.writeLock().lock();
+                                    Trace.current().mark(Phase.LOCK);
+                                    try {
+                                        fsManager.deleteFile(filename);
+                                    } finally {
+                                        rwLock.writeLock().unlock();
+                                    }
+                                    return null;
+                                });
+
+                                out.write(ResponseWriter.SUCCESS_FILE);
+                                request.writeFilename(out);
+                                out.write(ResponseWriter.DELETED).endLine();
                                 break;
                             }
 
-                            rwLock.readLock().lock();
-                            byte[] data;
-                            try {
-                                data = fsManager.readFile(filename);
-                            } finally {
-                                rwLock.readLock().unlock();
+                            case LIST: {
+                                list(request, client, out);
+                                break;
                             }
 
-                            // send file contents as a single line
-                            String body = new String(data, StandardCharsets.UTF_8);
-                            writer.println(body);
-                            break;
-                        }
+                            case STAT: {
+                                if (!request.hasFilename()) {
+                                    out.line(ResponseWriter.MISSING_FILENAME);
+                                    break;
+                                }
+                                String filename = request.filename();
+
+                                FEntry entry = client.execute(FairScheduler.OpClass.READ, 0, () -> {
+                                    rwLock.readLock().lock();
+                                    Trace.current().mark(Phase.LOCK);
+                                    try {
+                                        return fsManager.statFile(filename);
+                                    } finally {
+                                        rwLock.readLock().unlock();
+                                    }
+                                });
 
-                        case "DELETE": {
-                            if (parts.length < 2) {
-                                writer.println("ERROR: missing filename");
+                                out.write(entry.getFilename())
+                                        .write(ResponseWriter.SIZE).write(entry.getFilesize())
+                                        .write(ResponseWriter.FIRST_BLOCK);
+                                if (entry.isInline()) {
+                                    out.write(ResponseWriter.INLINE);
+                                } else {
+                                    out.write(entry.getFirstBlock());
+                                }
+                                out.endLine();
                                 break;
                             }
-                            String filename = parts[1];
-                            if (filename.length() > 11) {
-                                writer.println("ERROR: filename too large");
+
+                            case WATCH: {
+                                if (!request.hasFilename()) {
+                                    out.line(ResponseWriter.MISSING_FILENAME);
+                                    break;
+                                }
+                                String pattern = request.filename();
+                                if (watches.size() >= MAX_WATCHES_PER_CONNECTION) {
+                                    out.line(ResponseWriter.TOO_MANY_WATCHES);
+                                    break;
+                                }
+                                trace.mark(Phase.PARSE);
+
+                                // subscribed before the reply so no change after it is missed, but
+                                // pushed only after it, so the reply comes first
+                                Subscription subscription = fsManager.getEventBus().subscribe(pattern);
+                                watches.add(subscription);
+                                eventMode = true;
+                                if (pusher == null) {
+                                    pusher = new EventPusher(output);
+                                }
+
+                                out.write(ResponseWriter.WATCHING).write(pattern).write(ResponseWriter.WATCHING_END).endLine();
+                                pusher.add(subscription);
                                 break;
                             }
 
-                            rwLock.writeLock().lock();
-                            try {
-                                fsManager.deleteFile(filename);
-                            } finally {
-                                rwLock.writeLock().unlock();
-                            }
+                            case UNWATCH: {
+                                trace.mark(Phase.PARSE);
+                                String pattern = request.filename(); // null: all watches
+                                int removed = 0;
+                                for (Iterator<Subscription> it = watches.iterator(); it.hasNext(); ) {
+                                    Subscription subscription = it.next();
+                                    if (pattern == null || subscription.getPattern().equals(pattern)) {
+                                        pusher.remove(subscription);
+                                        subscription.cancel();
+                                        it.remove();
+                                        removed++;
+                                    }
+                                }
+                                if (pattern != null && removed == 0) {
+                                    out.write(ResponseWriter.NOT_WATCHING).write(pattern).write(ResponseWriter.QUOTE).endLine();
+                                    break;
+                                }
 
-                            writer.println("SUCCESS: File '" + filename + "' deleted.");
-                            break;
-                        }
+                                out.write(ResponseWriter.STOPPED).write(removed).write(ResponseWriter.STOPPED_END).endLine();
+                                break;
+                            }
 
-                        case "LIST": {
-                            rwLock.readLock().lock();
-                            String[] files;
-                            try {
-                                files = fsManager.listFiles();
-                            } finally {
-                                rwLock.readLock().unlock();
+                            case SNAPSHOT: {
+                                snapshot(request, client, out);
+                                break;
                             }
 
-                            // join non-empty names in one line
-                            StringBuilder sb = new StringBuilder();
-                            if (files != null) {
-                                for (String name : files) {
-                                    if (name != null && !name.isBlank()) {
-                                        if (sb.length() > 0) sb.append(" ");
-                                        sb.append(name);
-                                    }
+                            case FSCK: {
+                                trace.mark(Phase.PARSE);
+                                if (request.hasFilename() && request.filename().equalsIgnoreCase("START")) {
+                                    startConsistencyCheck();
+                                    out.line(ResponseWriter.FSCK_STARTED);
+                                    break;
                                 }
+                                fsckStatus(out);
+                                break;
                             }
-                            writer.println(sb.toString());
-                            break;
-                        }
 
-                        case "QUIT":
-                            writer.println("SUCCESS: Disconnecting.");
-                            return; // end this client thread
+                            case STATS:
+                                trace.mark(Phase.PARSE);
+                                stats(out);
+                                break;
+
+                            case QUIT:
+                                out.line(ResponseWriter.DISCONNECTING);
+                                return; // end this client thread
 
-                        default:
-                            writer.println("ERROR: Unknown command.");
-                            break;
+                            default:
+                                out.line(ResponseWriter.UNKNOWN_COMMAND);
+                                break;
+                        }
                     }
+                } catch (ConnectionException e) {
+                    throw e; // the client is gone, handled below
                 } catch (Exception e) {
-                    // Pass back a friendly error but keep the server alive
+                    // Pass back a friendly error but keep the server alive; this includes
+                    // IOExceptions from the filesystem, which are not the client's fault
+                    out.reset();
                     String msg = e.getMessage();
                     if (msg == null || msg.isBlank()) {
-                        msg = "ERROR: internal server error";
+                        out.line(ResponseWriter.INTERNAL_ERROR);
+                    } else {
+                        if (!msg.startsWith("ERROR")) {
+                            out.write(ResponseWriter.ERROR);
+                        }
+                        // write() strips newlines so the client still gets a single-line response
+                        out.write(msg).endLine();
                     }
-                    // strip newlines so the client still gets a single-line response
-                    msg = msg.replace("\r", "").replace("\n", "");
-                    writer.println(msg);
+                }
+                // a request rejected before it reached the scheduler was only parsed
+                trace.markIfFirst(Phase.PARSE);
+                if (trace.isActive()) {
+                    tracer.finish(trace, command.name(), request.filename());
                 }
             }
         } catch (IOException e) {
             System.err.println("Client connection problem: " + e.getMessage());
+        } finally {
+            if (pusher != null) {
+                pusher.close();
+            }
+            for (Subscription subscription : watches) {
+                subscription.cancel();
+            }
+            openConnections.decrementAndGet();
+        }
+    }
+
+    // Answers "ERROR: ..." and returns false unless the request has a usable filename
+    private static boolean checkFilename(CommandReader request, ResponseWriter out) throws IOException {
+        if (!request.hasFilename()) {
+            out.line(ResponseWriter.MISSING_FILENAME);
+            return false;
+        }
+        if (request.filenameLength() > MAX_FILENAME_BYTES) {
+            out.line(ResponseWriter.FILENAME_TOO_LARGE);
+            return false;
+        }
+        return true;
+    }
+
+    private void startConsistencyCheck() {
+        // the lock is only held while the metadata is copied
+        rwLock.readLock().lock();
+        try {
+            fsManager.startConsistencyCheck();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private void fsckStatus(ResponseWriter out) throws IOException {
+        ConsistencyChecker check = fsManager.getLastConsistencyCheck();
+        if (check == null) {
+            out.line(ResponseWriter.FSCK_NOT_RUN);
+            return;
+        }
+        switch (check.getState()) {
+            case RUNNING:
+                out.write(ResponseWriter.FSCK_RUNNING).write(check.getProgressPercent()).write('%').endLine();
+                break;
+            case CLEAN:
+                out.write(ResponseWriter.FSCK_CLEAN).write(check.getFilesChecked())
+                        .write(ResponseWriter.FSCK_FILES).write(check.getBlocksChecked())
+                        .write(ResponseWriter.FSCK_BLOCKS).endLine();
+                break;
+            default:
+                List<String> problems = check.getProblems();
+                out.write(ResponseWriter.FSCK_PROBLEMS).write(problems.size()).write(ResponseWriter.FSCK_PROBLEM_COUNT)
+                        .write(String.join("; ", problems)).endLine();
+                break;
+        }
+    }
+
+    // Not scheduled: it is a monitoring probe and should answer even when the workers are busy
+    private void stats(ResponseWriter out) throws IOException {
+        int files;
+        int freeBlocks;
+        rwLock.readLock().lock();
+        try {
+            files = fsManager.listFiles().length;
+            freeBlocks = fsManager.numFreeBlocks();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long fds = (os instanceof UnixOperatingSystemMXBean)
+                ? ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount() : -1;
+        Runtime runtime = Runtime.getRuntime();
+
+        out.write(ResponseWriter.STATS_CONNECTIONS).write(openConnections.get())
+                .write(ResponseWriter.STATS_THREADS).write(ManagementFactory.getThreadMXBean().getThreadCount())
+                .write(ResponseWriter.STATS_FDS).write(fds)
+                .write(ResponseWriter.STATS_HEAP).write((runtime.totalMemory() - runtime.freeMemory()) / 1024)
+                .write(ResponseWriter.STATS_FILES).write(files)
+                .write(ResponseWriter.STATS_FREE_BLOCKS).write(freeBlocks)
+                .endLine();
+    }
+
+    // SNAPSHOT [CREATE|LIST|DROP <id>|EXPORT <id>]
+    private void snapshot(CommandReader request, FairScheduler.Client client, ResponseWriter out) throws Exception {
+        String[] args = request.arguments();
+        String action = (args.length >= 1) ? args[0].toUpperCase() : "CREATE";
+        int snapshotId = (args.length >= 2) ? parseSnapshotId(args[1]) : -1;
+
+        switch (action) {
+            case "CREATE": {
+                // exclusive only for as long as it takes to copy the metadata tables
+                Snapshot snapshot = client.execute(FairScheduler.OpClass.WRITE, 0, () -> {
+                    rwLock.writeLock().lock();
+                    Trace.current().mark(Phase.LOCK);
+                    try {
+                        return fsManager.createSnapshot();
+                    } finally {
+                        rwLock.writeLock().unlock();
+                    }
+                });
+                out.write(ResponseWriter.SNAPSHOT).write(snapshot.getId()).write(ResponseWriter.SNAPSHOT_CREATED).endLine();
+                break;
+            }
+
+            case "LIST": {
+                List<Snapshot> snapshots = client.execute(FairScheduler.OpClass.READ, 0, () -> {
+                    rwLock.readLock().lock();
+                    Trace.current().mark(Phase.LOCK);
+                    try {
+                        return fsManager.getSnapshots();
+                    } finally {
+                        rwLock.readLock().unlock();
+                    }
+                });
+                for (int i = 0; i < snapshots.size(); i++) {
+                    if (i > 0) out.write(' ');
+                    out.write(snapshots.get(i).getId()).write(':').write(snapshots.get(i).getExportState().name());
+                }
+                out.endLine();
+                break;
+            }
+
+            case "DROP": {
+                if (snapshotId < 0) {
+                    out.line(ResponseWriter.INVALID_SNAPSHOT);
+                    break;
+                }
+                client.execute(FairScheduler.OpClass.WRITE, 0, () -> {
+                    rwLock.writeLock().lock();
+                    Trace.current().mark(Phase.LOCK);
+                    try {
+                        fsManager.dropSnapshot(snapshotId);
+                    } finally {
+                        rwLock.writeLock().unlock();
+                    }
+                    return null;
+                });
+                out.write(ResponseWriter.SNAPSHOT).write(snapshotId).write(ResponseWriter.SNAPSHOT_DROPPED).endLine();
+                break;
+            }
+
+            case "EXPORT": {
+                if (snapshotId < 0) {
+                    out.line(ResponseWriter.INVALID_SNAPSHOT);
+                    break;
+                }
+                // only starts the export; writes carry on while it runs
+                String target = client.execute(FairScheduler.OpClass.WRITE, 0, () -> {
+                    rwLock.writeLock().lock();
+                    Trace.current().mark(Phase.LOCK);
+                    try {
+                        return fsManager.exportSnapshot(snapshotId);
+                    } finally {
+                        rwLock.writeLock().unlock();
+                    }
+                });
+                out.write(ResponseWriter.EXPORTING).write(snapshotId).write(ResponseWriter.TO)
+                        .write(target).write(ResponseWriter.PERIOD).endLine();
+                break;
+            }
+
+            default:
+                out.line(ResponseWriter.UNKNOWN_SNAPSHOT_COMMAND);
+                break;
+        }
+    }
+
+    // Non-negative snapshot id, or -1 when the text is not one
+    private static int parseSnapshotId(String text) {
+        try {
+            return Math.max(-1, Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // LIST [-l] [prefix] [cursor] [limit], answered from the sorted in-memory index
+    private void list(CommandReader request, FairScheduler.Client client, ResponseWriter out) throws Exception {
+        String[] args = request.arguments();
+        int pos = 0;
+        boolean longFormat = false;
+        if (pos < args.length && args[pos].equals("-l")) {
+            longFormat = true;
+            pos++;
+        }
+        String prefix = (pos < args.length && !args[pos].equals("-")) ? args[pos] : "";
+        pos++;
+        String cursor = (pos < args.length && !args[pos].equals("-")) ? args[pos] : null;
+        pos++;
+        int limit = Integer.MAX_VALUE;
+        if (pos < args.length) {
+            try {
+                limit = Integer.parseInt(args[pos]);
+            } catch (NumberFormatException e) {
+                limit = 0;
+            }
+            if (limit <= 0) {
+                out.line(ResponseWriter.INVALID_LIMIT);
+                return;
+            }
+        }
+        // ask for one extra name to know whether another page exists
+        int fetch = (limit == Integer.MAX_VALUE) ? limit : limit + 1;
+
+        String last = null;
+        int count = 0;
+        boolean more = false;
+
+        if (longFormat) {
+            FEntry[] entries = client.execute(FairScheduler.OpClass.READ, 0, () -> {
+                rwLock.readLock().lock();
+                Trace.current().mark(Phase.LOCK);
+                try {
+                    return fsManager.listEntries(prefix, cursor, fetch);
+                } finally {
+                    rwLock.readLock().unlock();
+                }
+            });
+            for (FEntry entry : entries) {
+                if (count == limit) { more = true; break; }
+                if (count > 0) out.write(' ');
+                last = entry.getFilename();
+                out.write(last).write(':').write(entry.getFilesize());
+                count++;
+            }
+        } else {
+            String[] names = client.execute(FairScheduler.OpClass.READ, 0, () -> {
+                rwLock.readLock().lock();
+                Trace.current().mark(Phase.LOCK);
+                try {
+                    return fsManager.listFiles(prefix, cursor, fetch);
+                } finally {
+                    rwLock.readLock().unlock();
+                }
+            });
+            for (String name : names) {
+                if (count == limit) { more = true; break; }
+                if (count > 0) out.write(' ');
+                out.write(name);
+                last = name;
+                count++;
+            }
+        }
+
+        if (more) {
+            if (count > 0) out.write(' ');
+            out.write(ResponseWriter.NEXT).write(last);
         }
+        out.endLine();
     }
 }
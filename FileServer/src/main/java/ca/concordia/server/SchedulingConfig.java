@@ -0,0 +1,98 @@
+package ca.concordia.server;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// How a FileServer schedules requests (see FairScheduler): the number of worker threads, how long
+// a bulk write may be passed over, which WRITEs count as bulk, and each client's weight and rates.
+//
+// Clients are told apart by IP address: connections from an address given to setClientLimits()
+// get that weight and those rates, all other connections get the defaults. Rates <= 0 mean
+// unlimited; every connection has its own token buckets, so the rates apply per connection.
+public class SchedulingConfig {
+
+    public static final int DEFAULT_WORKER_THREADS = 4;
+    public static final long DEFAULT_MAX_BULK_DELAY_MS = 200;
+    public static final double DEFAULT_OPS_PER_SECOND = 1000;
+    public static final double DEFAULT_BYTES_PER_SECOND = 1024 * 1024;
+    // WRITEs larger than this are scheduled as bulk and yield to reads
+    public static final int DEFAULT_BULK_WRITE_BYTES = 512;
+
+    // Fair-share weight and rate limits of one client
+    public static class ClientLimits {
+        private final double weight;
+        private final double opsPerSecond;
+        private final double bytesPerSecond;
+
+        public ClientLimits(double weight, double opsPerSecond, double bytesPerSecond) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive.");
+            }
+            this.weight = weight;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public double getOpsPerSecond() {
+            return opsPerSecond;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+    }
+
+    private final int workerThreads;
+    private final long maxBulkDelayMillis;
+    private final int bulkWriteBytes;
+    private final ClientLimits defaultLimits;
+    // IP address (as from InetAddress.getHostAddress()) -> limits
+    private final Map<String, ClientLimits> clientLimits = new ConcurrentHashMap<>();
+
+    public SchedulingConfig() {
+        this(DEFAULT_WORKER_THREADS, DEFAULT_MAX_BULK_DELAY_MS, DEFAULT_BULK_WRITE_BYTES,
+                new ClientLimits(1.0, DEFAULT_OPS_PER_SECOND, DEFAULT_BYTES_PER_SECOND));
+    }
+
+    public SchedulingConfig(int workerThreads, long maxBulkDelayMillis, int bulkWriteBytes, ClientLimits defaultLimits) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("Need at least one worker.");
+        }
+        if (maxBulkDelayMillis < 0 || bulkWriteBytes < 0) {
+            throw new IllegalArgumentException("Bulk delay and bulk size cannot be negative.");
+        }
+        this.workerThreads = workerThreads;
+        this.maxBulkDelayMillis = maxBulkDelayMillis;
+        this.bulkWriteBytes = bulkWriteBytes;
+        this.defaultLimits = defaultLimits;
+    }
+
+    public void setClientLimits(InetAddress address, ClientLimits limits) {
+        clientLimits.put(address.getHostAddress(), limits);
+    }
+
+    public ClientLimits limitsFor(InetAddress address) {
+        return clientLimits.getOrDefault(address.getHostAddress(), defaultLimits);
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public long getMaxBulkDelayMillis() {
+        return maxBulkDelayMillis;
+    }
+
+    public int getBulkWriteBytes() {
+        return bulkWriteBytes;
+    }
+
+    public ClientLimits getDefaultLimits() {
+        return defaultLimits;
+    }
+}
@@ -0,0 +1,50 @@
+package ca.concordia.server;
+
+// Token bucket used to rate-limit one client (ops/sec or bytes/sec).
+// acquire() hands out tokens on credit: a request larger than the bucket is let through once
+// the bucket is non-negative, and the debt is paid by delaying the caller's next requests.
+// Only the calling (client) thread ever sleeps, so other clients are never slowed down.
+public class TokenBucket {
+
+    private final double ratePerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    // ratePerSecond <= 0 means unlimited
+    public TokenBucket(double ratePerSecond, double burst) {
+        this.ratePerNano = ratePerSecond / 1_000_000_000d;
+        this.capacity = Math.max(burst, 1);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public boolean isUnlimited() {
+        return ratePerNano <= 0;
+    }
+
+    public void acquire(long amount) throws InterruptedException {
+        long waitNanos = reserve(amount);
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    // Takes the tokens and returns how long the caller has to wait before it may proceed.
+    // Zero tokens still wait out an earlier debt.
+    synchronized long reserve(long amount) {
+        if (isUnlimited()) {
+            return 0;
+        }
+        refill();
+        long waitNanos = (tokens >= 0) ? 0 : (long) Math.ceil(-tokens / ratePerNano);
+        tokens -= amount;
+        return waitNanos;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,51 @@
+package ca.concordia.server.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+// Protocol verbs, matched case-insensitively straight from the request bytes
+public enum Command {
+    CREATE,
+    WRITE,
+    READ,
+    DELETE,
+    LIST,
+    STAT,
+    WATCH,
+    UNWATCH,
+    SNAPSHOT,
+    FSCK,
+    STATS,
+    QUIT,
+    // blank line
+    EMPTY,
+    // line longer than CommandReader.MAX_LINE_BYTES; its contents were discarded
+    TOO_LONG,
+    UNKNOWN;
+
+    private static final Command[] VERBS = {CREATE, WRITE, READ, DELETE, LIST, STAT, WATCH, UNWATCH, SNAPSHOT, FSCK, STATS, QUIT};
+
+    private final byte[] name = name().getBytes(StandardCharsets.US_ASCII);
+
+    static Command parse(byte[] buf, int start, int end) {
+        int length = end - start;
+        for (Command verb : VERBS) {
+            if (verb.name.length == length && verb.matches(buf, start)) {
+                return verb;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private boolean matches(byte[] buf, int start) {
+        for (int i = 0; i < name.length; i++) {
+            int b = buf[start + i];
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
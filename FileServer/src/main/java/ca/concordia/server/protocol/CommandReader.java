@@ -0,0 +1,173 @@
+package ca.concordia.server.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads request lines from a connection into one reused ByteBuffer and parses them in place.
+// A request is "<verb> <filename> <rest of line>" split on single spaces (WRITE content keeps
+// its spaces), with surrounding whitespace trimmed. The verb becomes a Command, and the other
+// parts stay as offsets into the buffer until a caller actually needs them as objects.
+public class CommandReader {
+
+    public static final int INITIAL_BUFFER_BYTES = 8 * 1024;
+    public static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    private final InputStream in;
+    // bytes [position, limit) are read but not yet parsed
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES).flip();
+
+    // current request, as offsets into buffer.array()
+    private Command command = Command.EMPTY;
+    private int lineStart;
+    private int lineEnd;
+    private int argStart = -1; // filename
+    private int argEnd = -1;
+    private int restStart = -1; // everything after the filename
+
+    // last filename handed out, reused while clients keep naming the same file
+    private byte[] lastFilenameBytes = new byte[0];
+    private String lastFilename = "";
+
+    public CommandReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Reads and parses the next line; false at end of stream
+    public boolean next() throws IOException {
+        int newline;
+        boolean tooLong = false;
+        while ((newline = findNewline()) < 0) {
+            if (buffer.remaining() >= MAX_LINE_BYTES) {
+                // give up on this line: drop what we have and skip to its end
+                buffer.position(buffer.limit());
+                tooLong = true;
+            }
+            if (!fill()) {
+                if (buffer.hasRemaining() && !tooLong) {
+                    newline = buffer.limit(); // last line without a newline
+                    break;
+                }
+                return false;
+            }
+        }
+
+        int start = buffer.position();
+        buffer.position(Math.min(newline + 1, buffer.limit()));
+        if (tooLong) {
+            command = Command.TOO_LONG;
+            argStart = argEnd = restStart = -1;
+            return true;
+        }
+        parse(start, newline);
+        return true;
+    }
+
+    public Command command() {
+        return command;
+    }
+
+    public boolean hasFilename() {
+        return argStart >= 0 && argEnd > argStart;
+    }
+
+    public int filenameLength() {
+        return hasFilename() ? argEnd - argStart : 0;
+    }
+
+    // Filename as a String; no new String when it is the same name as the previous request
+    public String filename() {
+        if (!hasFilename()) {
+            return null;
+        }
+        byte[] buf = buffer.array();
+        if (!Arrays.equals(buf, argStart, argEnd, lastFilenameBytes, 0, lastFilenameBytes.length)) {
+            lastFilenameBytes = Arrays.copyOfRange(buf, argStart, argEnd);
+            lastFilename = new String(lastFilenameBytes, StandardCharsets.UTF_8);
+        }
+        return lastFilename;
+    }
+
+    // Writes the raw filename bytes (no decoding/encoding round trip)
+    public void writeFilename(ResponseWriter out) {
+        if (hasFilename()) {
+            out.write(buffer.array(), argStart, argEnd - argStart);
+        }
+    }
+
+    // WRITE payload: everything after the filename, copied out of the reused buffer
+    public byte[] content() {
+        if (restStart < 0) {
+            return new byte[0];
+        }
+        return Arrays.copyOfRange(buffer.array(), restStart, lineEnd);
+    }
+
+    // Space-separated arguments after the verb (for LIST); only allocates when called
+    public String[] arguments() {
+        String rest = new String(buffer.array(), lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+        String[] tokens = rest.split(" +");
+        return Arrays.copyOfRange(tokens, 1, tokens.length);
+    }
+
+    private void parse(int start, int end) {
+        byte[] buf = buffer.array();
+        // trim, like String.trim()
+        while (start < end && (buf[start] & 0xFF) <= ' ') start++;
+        while (end > start && (buf[end - 1] & 0xFF) <= ' ') end--;
+        lineStart = start;
+        lineEnd = end;
+        argStart = argEnd = restStart = -1;
+
+        if (start == end) {
+            command = Command.EMPTY;
+            return;
+        }
+
+        int verbEnd = indexOfSpace(buf, start, end);
+        command = Command.parse(buf, start, verbEnd);
+        if (verbEnd == end) {
+            return;
+        }
+
+        argStart = verbEnd + 1;
+        argEnd = indexOfSpace(buf, argStart, end);
+        if (argEnd < end) {
+            restStart = argEnd + 1;
+        }
+    }
+
+    private static int indexOfSpace(byte[] buf, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buf[i] == ' ') return i;
+        }
+        return end;
+    }
+
+    private int findNewline() {
+        byte[] buf = buffer.array();
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buf[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    // Reads more bytes after the unparsed ones, compacting/growing the buffer as needed
+    private boolean fill() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_LINE_BYTES + INITIAL_BUFFER_BYTES));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (n > 0) {
+            buffer.position(buffer.position() + n);
+        }
+        buffer.flip();
+        return n > 0;
+    }
+}
@@ -0,0 +1,14 @@
+package ca.concordia.server.protocol;
+
+import java.io.IOException;
+
+// An I/O error on the client connection itself, as opposed to one coming out of the
+// filesystem: the response could not be sent and the connection has to be dropped.
+public class ConnectionException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConnectionException(IOException cause) {
+        super(cause.getMessage(), cause);
+    }
+}
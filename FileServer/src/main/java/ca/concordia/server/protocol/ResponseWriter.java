@@ -0,0 +1,185 @@
+package ca.concordia.server.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Builds one response line at a time in a reused byte buffer and writes it out on endLine().
+// Fixed parts of responses are pre-encoded once (see the constants below) and Strings are
+// UTF-8 encoded straight into the buffer, so a response costs no allocations.
+//
+// Several writers may share one OutputStream (e.g. the request handler and a WATCH pusher):
+// endLine() writes the whole line while holding the stream's monitor, so lines never interleave.
+public class ResponseWriter {
+
+    public static final byte[] SUCCESS_FILE = ascii("SUCCESS: File '");
+    public static final byte[] CREATED = ascii("' created.");
+    public static final byte[] WRITTEN = ascii("' written.");
+    public static final byte[] DELETED = ascii("' deleted.");
+    public static final byte[] WATCHING = ascii("SUCCESS: Watching '");
+    public static final byte[] WATCHING_END = ascii("'.");
+    public static final byte[] STOPPED = ascii("SUCCESS: Stopped ");
+    public static final byte[] STOPPED_END = ascii(" watch(es).");
+    public static final byte[] NOT_WATCHING = ascii("ERROR: not watching '");
+    public static final byte[] QUOTE = ascii("'");
+    public static final byte[] DISCONNECTING = ascii("SUCCESS: Disconnecting.");
+    public static final byte[] EVENT = ascii("EVENT ");
+    public static final byte[] SIZE = ascii(" size=");
+    public static final byte[] FIRST_BLOCK = ascii(" firstBlock=");
+    public static final byte[] INLINE = ascii("inline");
+    public static final byte[] NEXT = ascii("NEXT=");
+
+    public static final byte[] SNAPSHOT = ascii("SUCCESS: Snapshot ");
+    public static final byte[] SNAPSHOT_CREATED = ascii(" created.");
+    public static final byte[] SNAPSHOT_DROPPED = ascii(" dropped.");
+    public static final byte[] EXPORTING = ascii("SUCCESS: Exporting snapshot ");
+    public static final byte[] TO = ascii(" to ");
+    public static final byte[] PERIOD = ascii(".");
+
+    public static final byte[] FSCK_NOT_RUN = ascii("FSCK: not run yet (FSCK START)");
+    public static final byte[] FSCK_STARTED = ascii("SUCCESS: Consistency check started.");
+    public static final byte[] FSCK_RUNNING = ascii("FSCK: running ");
+    public static final byte[] FSCK_CLEAN = ascii("FSCK: clean, ");
+    public static final byte[] FSCK_PROBLEMS = ascii("FSCK: ");
+    public static final byte[] FSCK_FILES = ascii(" file(s) and ");
+    public static final byte[] FSCK_BLOCKS = ascii(" block(s) checked");
+    public static final byte[] FSCK_PROBLEM_COUNT = ascii(" problem(s): ");
+
+    public static final byte[] STATS_CONNECTIONS = ascii("STATS connections=");
+    public static final byte[] STATS_THREADS = ascii(" threads=");
+    public static final byte[] STATS_FDS = ascii(" fds=");
+    public static final byte[] STATS_HEAP = ascii(" heapKB=");
+    public static final byte[] STATS_FILES = ascii(" files=");
+    public static final byte[] STATS_FREE_BLOCKS = ascii(" freeBlocks=");
+
+    public static final byte[] EMPTY_COMMAND = ascii("ERROR: empty command");
+    public static final byte[] COMMAND_TOO_LONG = ascii("ERROR: command too long");
+    public static final byte[] MISSING_FILENAME = ascii("ERROR: missing filename");
+    public static final byte[] FILENAME_TOO_LARGE = ascii("ERROR: filename too large");
+    public static final byte[] INVALID_SNAPSHOT = ascii("ERROR: invalid snapshot id");
+    public static final byte[] UNKNOWN_SNAPSHOT_COMMAND = ascii("ERROR: usage: SNAPSHOT [CREATE|LIST|DROP <id>|EXPORT <id>]");
+    public static final byte[] INVALID_LIMIT = ascii("ERROR: invalid limit");
+    public static final byte[] EVENT_CONNECTION = ascii("ERROR: this connection only carries WATCH events (WATCH, UNWATCH, QUIT)");
+    public static final byte[] TOO_MANY_WATCHES = ascii("ERROR: too many watches on this connection");
+    public static final byte[] UNKNOWN_COMMAND = ascii("ERROR: Unknown command.");
+    public static final byte[] INTERNAL_ERROR = ascii("ERROR: internal server error");
+    public static final byte[] ERROR = ascii("ERROR: ");
+
+    private static final int INITIAL_BUFFER_BYTES = 8 * 1024;
+
+    private final OutputStream out;
+    private byte[] buf = new byte[INITIAL_BUFFER_BYTES];
+    private int count = 0;
+
+    public ResponseWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public ResponseWriter write(byte[] bytes) {
+        return write(bytes, 0, bytes.length);
+    }
+
+    public ResponseWriter write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+        return this;
+    }
+
+    public ResponseWriter write(char c) {
+        ensureCapacity(1);
+        buf[count++] = (byte) c;
+        return this;
+    }
+
+    public ResponseWriter write(long value) {
+        if (value == Long.MIN_VALUE) {
+            return write(ascii(Long.toString(value)));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buf[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // digits came out backwards
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+        return this;
+    }
+
+    // UTF-8 encodes s into the buffer; CR/LF are dropped so the response stays on one line
+    public ResponseWriter write(String s) {
+        ensureCapacity(s.length() * 3);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\r' || c == '\n') {
+                continue;
+            }
+            if (c < 0x80) {
+                buf[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[count++] = (byte) (0xF0 | (cp >> 18));
+                buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[count++] = '?'; // unpaired surrogate, same as String.getBytes
+            } else {
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    // Terminates the line and sends it; a failure to send is a ConnectionException
+    public void endLine() throws IOException {
+        ensureCapacity(1);
+        buf[count++] = '\n';
+        try {
+            synchronized (out) {
+                out.write(buf, 0, count);
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw (e instanceof ConnectionException) ? e : new ConnectionException(e);
+        } finally {
+            count = 0;
+        }
+    }
+
+    // Drops a partly built line (e.g. when the request failed halfway through)
+    public void reset() {
+        count = 0;
+    }
+
+    // Convenience for fixed responses
+    public void line(byte[] bytes) throws IOException {
+        write(bytes).endLine();
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            byte[] bigger = new byte[Math.max(buf.length * 2, count + extra)];
+            System.arraycopy(buf, 0, bigger, 0, count);
+            buf = bigger;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
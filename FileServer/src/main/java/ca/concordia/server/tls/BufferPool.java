@@ -0,0 +1,57 @@
+package ca.concordia.server.tls;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pool of equally sized direct ByteBuffers. Direct buffers are expensive to allocate and only
+// freed by the GC, so TLS connections borrow theirs from here and give them back on close.
+// At most maxPooled idle buffers are kept; beyond that released buffers are dropped.
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    // A cleared buffer of getBufferSize() bytes
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return; // not one of ours (e.g. enlarged after a handshake)
+        }
+        if (idleCount.incrementAndGet() > maxPooled) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(buffer.clear());
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Buffers allocated so far (not counting reuse)
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+}
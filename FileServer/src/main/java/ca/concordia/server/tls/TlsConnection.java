@@ -0,0 +1,310 @@
+package ca.concordia.server.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One TLS connection over a blocking SocketChannel, driven by an SSLEngine and exposed as
+// plain streams, so the request handler does not care whether the client talks TLS.
+//
+// The three engine buffers (encrypted in, decrypted in, encrypted out) are direct buffers
+// borrowed from a BufferPool for the lifetime of the connection: the channel reads and writes
+// them without an extra copy, requests reuse them, and they go back to the pool on close.
+//
+// Reading (unwrap) and writing (wrap) can happen on different threads at the same time (the
+// request handler and a WATCH pusher); SSLEngine allows that, and each side has its own lock.
+// Lock order is readLock before writeLock (a read may have to send a handshake message).
+public class TlsConnection implements Closeable {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    // how long close() waits for a writer before giving up on close_notify
+    private static final long CLOSE_NOTIFY_WAIT_MILLIS = 100;
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final BufferPool pool;
+
+    private final Object readLock = new Object();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // guarded by readLock: netIn in write mode, appIn in read mode between calls
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    // guarded by writeLock, empty between calls
+    private ByteBuffer netOut;
+    // guarded by writeLock: a heap wrapper over the last array written, reused while callers
+    // (like ResponseWriter) keep writing from the same array
+    private ByteBuffer wrapped = EMPTY;
+    private byte[] wrappedArray;
+
+    // set once by the first close(); the request handler and a WATCH pusher may both call it
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return TlsConnection.this.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            TlsConnection.this.close();
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            TlsConnection.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            TlsConnection.this.close();
+        }
+    };
+
+    TlsConnection(SocketChannel channel, SSLEngine engine, BufferPool pool) {
+        this.channel = channel;
+        this.engine = engine;
+        this.pool = pool;
+        this.netIn = pool.acquire();
+        this.appIn = pool.acquire().flip();
+        this.netOut = pool.acquire();
+    }
+
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    // Every write() is encrypted and sent right away, so flush() has nothing to do
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    void handshake() throws IOException {
+        engine.beginHandshake();
+        HandshakeStatus status = engine.getHandshakeStatus();
+
+        synchronized (readLock) {
+            while (status != HandshakeStatus.FINISHED && status != HandshakeStatus.NOT_HANDSHAKING) {
+                switch (status) {
+                    case NEED_WRAP:
+                        status = wrap(EMPTY);
+                        break;
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN:
+                        status = unwrap();
+                        break;
+                    case NEED_TASK:
+                        status = runTasks();
+                        break;
+                    default:
+                        throw new SSLException("Unexpected handshake status " + status);
+                }
+                if (engine.isInboundDone() || engine.isOutboundDone()) {
+                    throw new EOFException("Connection closed during the TLS handshake");
+                }
+            }
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        synchronized (readLock) {
+            if (closed.get()) {
+                throw new IOException("TLS connection is closed");
+            }
+            while (!appIn.hasRemaining()) {
+                if (engine.isInboundDone()) {
+                    return -1;
+                }
+                HandshakeStatus status = unwrap();
+                // the peer may start a post-handshake exchange (e.g. a key update)
+                while (status == HandshakeStatus.NEED_WRAP || status == HandshakeStatus.NEED_TASK) {
+                    status = (status == HandshakeStatus.NEED_TASK) ? runTasks() : wrap(EMPTY);
+                }
+            }
+            int n = Math.min(len, appIn.remaining());
+            appIn.get(b, off, n);
+            return n;
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        writeLock.lock();
+        try {
+            if (b != wrappedArray) {
+                wrapped = ByteBuffer.wrap(b);
+                wrappedArray = b;
+            }
+            wrapped.limit(off + len).position(off);
+            while (wrapped.hasRemaining()) {
+                wrap(wrapped);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // One wrap() call (at most one TLS record), sent to the channel completely
+    private HandshakeStatus wrap(ByteBuffer source) throws IOException {
+        writeLock.lock();
+        try {
+            if (closed.get()) {
+                throw new IOException("TLS connection is closed");
+            }
+            return send(source);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // wrap() without the closed check, so close() can still send close_notify; needs writeLock
+    private HandshakeStatus send(ByteBuffer source) throws IOException {
+        while (true) {
+            SSLEngineResult result = engine.wrap(source, netOut);
+            switch (result.getStatus()) {
+                case OK:
+                case CLOSED:
+                    netOut.flip();
+                    while (netOut.hasRemaining()) {
+                        channel.write(netOut);
+                    }
+                    netOut.clear();
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED && source.hasRemaining()) {
+                        throw new IOException("TLS connection is closed");
+                    }
+                    return result.getHandshakeStatus();
+                case BUFFER_OVERFLOW:
+                    netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    break;
+                default:
+                    throw new SSLException("Unexpected wrap status " + result.getStatus());
+            }
+        }
+    }
+
+    // Decrypts the next record into appIn (which must be empty), reading from the channel as
+    // needed. The result may hold no application data (e.g. a handshake message).
+    private HandshakeStatus unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            appIn.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+                appIn.flip();
+            }
+
+            switch (result.getStatus()) {
+                case OK:
+                    return result.getHandshakeStatus();
+                case CLOSED:
+                    // close_notify from the peer: answer it and report end of stream
+                    engine.closeOutbound();
+                    return HandshakeStatus.NOT_HANDSHAKING;
+                case BUFFER_UNDERFLOW:
+                    if (netIn.position() == netIn.capacity()) {
+                        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    if (channel.read(netIn) < 0) {
+                        // throws if the peer did not send close_notify: a truncated stream must
+                        // not end in a half request being run
+                        engine.closeInbound();
+                        return HandshakeStatus.NOT_HANDSHAKING;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn.compact(), engine.getSession().getApplicationBufferSize()).flip();
+                    break;
+                default:
+                    throw new SSLException("Unexpected unwrap status " + result.getStatus());
+            }
+        }
+    }
+
+    // Runs the engine's delegated tasks (certificate checks, key exchange) on this thread
+    private HandshakeStatus runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+        return engine.getHandshakeStatus();
+    }
+
+    // A bigger buffer with the same contents, both in write mode; the old one goes back to the pool
+    private ByteBuffer enlarge(ByteBuffer buffer, int minimumSize) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(minimumSize, buffer.capacity() * 2));
+        bigger.put(buffer.flip());
+        pool.release(buffer);
+        return bigger;
+    }
+
+    // Sends close_notify (best effort), closes the channel and returns the buffers to the pool.
+    // close_notify is skipped when another thread keeps writeLock, e.g. a WATCH pusher stuck in
+    // channel.write() on a client that stopped reading: closing the channel is what frees it.
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            engine.closeOutbound();
+            if (writeLock.tryLock(CLOSE_NOTIFY_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                try {
+                    send(EMPTY);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close(); // also wakes up threads blocked in read() or write()
+            } catch (IOException ignored) {
+            }
+        }
+        synchronized (readLock) {
+            writeLock.lock();
+            try {
+                pool.release(netIn);
+                pool.release(appIn);
+                pool.release(netOut);
+                netIn = appIn = netOut = null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ca.concordia.server.tls;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Server side TLS settings shared by all connections: the SSLContext (certificate and key),
+// its session cache and the buffer pool.
+//
+// Sessions are cached for SESSION_TIMEOUT_SECONDS, so a client that reconnects with the same
+// SSLContext (e.g. SSLSocketFactory.getDefault()) resumes its session (a TLS 1.2 session id
+// or a TLS 1.3 ticket) instead of doing a full handshake with certificate checks every time.
+//
+// A client that connects and then stalls the handshake would keep its connection thread forever,
+// so a timer closes the channel once the handshake has taken longer than the handshake timeout.
+public class TlsContext {
+
+    public static final int SESSION_CACHE_SIZE = 10_000;
+    public static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    // idle buffers kept for reuse; every connection holds three while it is open
+    private static final int MAX_POOLED_BUFFERS = 3 * 64;
+
+    private final SSLContext sslContext;
+    private final BufferPool bufferPool;
+    private final long handshakeTimeoutMillis;
+    private final ScheduledThreadPoolExecutor timer;
+
+    public TlsContext(SSLContext sslContext) {
+        this(sslContext, DEFAULT_HANDSHAKE_TIMEOUT_MILLIS);
+    }
+
+    public TlsContext(SSLContext sslContext, long handshakeTimeoutMillis) {
+        if (handshakeTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Handshake timeout must be positive.");
+        }
+        this.sslContext = sslContext;
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+
+        // one size fits both encrypted records and decrypted data
+        SSLSession session = sslContext.createSSLEngine().getSession();
+        int bufferSize = Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize());
+        this.bufferPool = new BufferPool(bufferSize, MAX_POOLED_BUFFERS);
+
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "tls-handshake-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // most handshakes finish in time; drop their timeouts instead of keeping them queued
+        timer.setRemoveOnCancelPolicy(true);
+        timer.prestartAllCoreThreads();
+    }
+
+    // Loads a PKCS12 or JKS keystore holding the server's certificate and private key
+    public static TlsContext fromKeyStore(String path, char[] password) throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(new File(path), password);
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return new TlsContext(context);
+    }
+
+    // Wraps an accepted connection and runs the handshake (blocking, on the caller's thread)
+    public TlsConnection open(SocketChannel channel) throws IOException {
+        // the handshake is several small writes in a row; Nagle would hold each one back
+        // until the previous one is acknowledged
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+
+        TlsConnection connection = new TlsConnection(channel, engine, bufferPool);
+        // closing the channel makes the blocked handshake read or write fail
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }, handshakeTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            connection.handshake();
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            if (!timeout.cancel(false)) {
+                throw new SocketTimeoutException("TLS handshake timed out after " + handshakeTimeoutMillis + "ms");
+            }
+            throw e;
+        }
+        if (!timeout.cancel(false)) {
+            // finished just as the timer closed the channel
+            connection.close();
+            throw new SocketTimeoutException("TLS handshake timed out after " + handshakeTimeoutMillis + "ms");
+        }
+        return connection;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+}
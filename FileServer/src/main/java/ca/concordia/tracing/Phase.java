@@ -0,0 +1,13 @@
+package ca.concordia.tracing;
+
+// Where the time of one request goes, in the order a request passes through them
+public enum Phase {
+    PARSE,     // request line decoded and checked, until it is handed to the scheduler or, for
+               // commands answered on the connection thread, until their own work starts
+    THROTTLE,  // waiting on the client's own rate limits
+    QUEUE,     // waiting in the fair scheduler for a worker
+    LOCK,      // waiting for rwLock
+    METADATA,  // filesystem work outside block I/O: lookups, FNode chain walks, allocation
+    IO,        // waiting for data block reads/writes
+    RESPONSE   // back on the connection thread, until the response is flushed
+}
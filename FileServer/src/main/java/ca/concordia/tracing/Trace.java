@@ -0,0 +1,71 @@
+package ca.concordia.tracing;
+
+// Phase timings of one request. Each mark(phase) charges the time since the previous mark to
+// that phase, so a phase can be charged several times (e.g. METADATA around two I/O batches).
+//
+// The trace of the request being served is reachable through current() from whichever thread
+// is working on it: the connection thread, then a scheduler worker (see FairScheduler), then
+// the connection thread again. Only one thread touches a trace at a time.
+//
+// Untraced requests get NONE, whose methods return right away without reading the clock.
+public class Trace {
+
+    public static final Trace NONE = new Trace(false);
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private final boolean active;
+    private final long start;
+    private long last;
+    private final long[] phaseNanos = new long[Phase.values().length];
+
+    Trace() {
+        this(true);
+    }
+
+    private Trace(boolean active) {
+        this.active = active;
+        this.start = active ? System.nanoTime() : 0;
+        this.last = start;
+    }
+
+    // The trace of the request this thread is working on, or NONE
+    public static Trace current() {
+        Trace trace = CURRENT.get();
+        return (trace == null) ? NONE : trace;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void mark(Phase phase) {
+        if (!active) return;
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - last;
+        last = now;
+    }
+
+    // Charges phase with everything so far, unless some phase was already marked
+    public void markIfFirst(Phase phase) {
+        if (active && last == start) mark(phase);
+    }
+
+    // Makes this the current() trace of the calling thread
+    public void attach() {
+        if (active) CURRENT.set(this);
+    }
+
+    public void detach() {
+        if (active) CURRENT.remove();
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    // From the start of the trace to its last mark
+    public long getElapsedNanos() {
+        return last - start;
+    }
+}
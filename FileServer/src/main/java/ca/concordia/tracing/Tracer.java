@@ -0,0 +1,95 @@
+package ca.concordia.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decides which requests get a Trace and logs the slow ones.
+//   sampleEvery 0: tracing off, every request gets Trace.NONE
+//   sampleEvery 1: every request is traced
+//   sampleEvery N: about one request in N is traced (random, so no shared counter between
+//                  connections), cheap enough to leave on in production
+// A traced request that takes at least slowMillis is printed with its phase breakdown.
+public class Tracer {
+
+    private final int sampleEvery;
+    private final long slowNanos;
+
+    private final AtomicLong traced = new AtomicLong();
+    private final AtomicLong slow = new AtomicLong();
+    private final LongAdder[] phaseTotals = new LongAdder[Phase.values().length];
+
+    public Tracer(int sampleEvery, long slowMillis) {
+        if (sampleEvery < 0 || slowMillis < 0) {
+            throw new IllegalArgumentException("Sample rate and slow threshold cannot be negative.");
+        }
+        this.sampleEvery = sampleEvery;
+        this.slowNanos = slowMillis * 1_000_000;
+        for (int i = 0; i < phaseTotals.length; i++) {
+            phaseTotals[i] = new LongAdder();
+        }
+    }
+
+    public static Tracer disabled() {
+        return new Tracer(0, 0);
+    }
+
+    public boolean isEnabled() {
+        return sampleEvery > 0;
+    }
+
+    // Starts tracing a request on the calling thread (right after its line was read)
+    public Trace begin() {
+        if (sampleEvery == 0) {
+            return Trace.NONE;
+        }
+        if (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0) {
+            return Trace.NONE;
+        }
+        Trace trace = new Trace();
+        trace.attach();
+        return trace;
+    }
+
+    // Called once the response is flushed; command/filename are only used for the slow-op log
+    public void finish(Trace trace, String command, String filename) {
+        if (!trace.isActive()) return;
+        trace.mark(Phase.RESPONSE);
+        trace.detach();
+
+        traced.incrementAndGet();
+        for (Phase phase : Phase.values()) {
+            phaseTotals[phase.ordinal()].add(trace.getPhaseNanos(phase));
+        }
+
+        if (trace.getElapsedNanos() >= slowNanos) {
+            slow.incrementAndGet();
+            StringBuilder line = new StringBuilder("SLOW ").append(command);
+            if (filename != null) {
+                line.append(' ').append(filename);
+            }
+            line.append(' ').append(millis(trace.getElapsedNanos())).append(':');
+            for (Phase phase : Phase.values()) {
+                line.append(' ').append(phase.name().toLowerCase()).append('=').append(millis(trace.getPhaseNanos(phase)));
+            }
+            System.out.println(line);
+        }
+    }
+
+    public long getTracedCount() {
+        return traced.get();
+    }
+
+    public long getSlowCount() {
+        return slow.get();
+    }
+
+    // Sum of a phase over every traced request so far
+    public long getPhaseTotalNanos(Phase phase) {
+        return phaseTotals[phase.ordinal()].sum();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1_000_000.0);
+    }
+}
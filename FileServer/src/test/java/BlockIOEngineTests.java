@@ -0,0 +1,113 @@
+import ca.concordia.filesystem.io.BlockIOEngine;
+import helpers.GatedFileChannel;
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockIOEngineTests {
+
+    @Test
+    void testBatchedWritesReadBack() throws Exception {
+        Path file = Files.createTempFile("engine", ".dat");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BlockIOEngine io = new BlockIOEngine(channel, 16);
+            try {
+                // submitted out of order, as several clients would
+                List<CompletableFuture<Void>> writes = new ArrayList<>();
+                for (int block : new int[]{3, 1, 2, 0}) {
+                    byte[] data = new byte[16];
+                    Arrays.fill(data, (byte) ('a' + block));
+                    writes.add(io.write(block, ByteBuffer.wrap(data)));
+                }
+                CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get();
+
+                byte[] all = new byte[4 * 16 + 8];
+                List<CompletableFuture<Void>> reads = new ArrayList<>();
+                for (int block = 0; block < 5; block++) {
+                    int length = Math.min(16, all.length - block * 16);
+                    reads.add(io.read(block, ByteBuffer.wrap(all, block * 16, length)));
+                }
+                CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).get();
+
+                assertEquals("a".repeat(16) + "b".repeat(16) + "c".repeat(16) + "d".repeat(16),
+                        new String(all, 0, 64));
+                // block 4 was never written: past the end of the file reads as zeroes
+                for (int i = 64; i < all.length; i++) {
+                    assertEquals(0, all[i]);
+                }
+            } finally {
+                io.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testQueuedAdjacentBlocksAreMerged() throws Exception {
+        Path file = Files.createTempFile("engine", ".dat");
+        try (GatedFileChannel channel = new GatedFileChannel(
+                FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))) {
+            BlockIOEngine io = new BlockIOEngine(channel, 16);
+            try {
+                // the dispatcher blocks in the first write while eight adjacent ones queue up
+                channel.hold();
+                CompletableFuture<Void> first = io.write(20, ByteBuffer.wrap(new byte[16]));
+                channel.awaitHeld();
+                List<CompletableFuture<Void>> writes = new ArrayList<>();
+                for (int block = 7; block >= 0; block--) {
+                    writes.add(io.write(block, ByteBuffer.wrap(new byte[16])));
+                }
+                channel.release();
+                first.get(5, TimeUnit.SECONDS);
+                CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+                assertEquals(9, io.requestCount());
+                assertEquals(2, io.systemCallCount());
+            } finally {
+                io.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testFailedRequestDoesNotStallLaterOnes() throws Exception {
+        Path file = Files.createTempFile("engine", ".dat");
+        try (GatedFileChannel channel = new GatedFileChannel(
+                FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))) {
+            BlockIOEngine io = new BlockIOEngine(channel, 16);
+            try {
+                channel.failWrites(true);
+                CompletableFuture<Void> failed = io.write(0, ByteBuffer.wrap(new byte[16]));
+                ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(IllegalStateException.class, e.getCause());
+
+                channel.failWrites(false);
+                io.write(1, ByteBuffer.wrap("0123456789abcdef".getBytes())).get(5, TimeUnit.SECONDS);
+                ByteBuffer back = ByteBuffer.allocate(16);
+                io.read(1, back).get(5, TimeUnit.SECONDS);
+                assertEquals("0123456789abcdef", new String(back.array()));
+
+                assertThrows(IllegalArgumentException.class, () -> io.read(-1, ByteBuffer.allocate(16)));
+            } finally {
+                io.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
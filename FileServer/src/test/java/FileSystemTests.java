@@ -1,6 +1,15 @@
+import ca.concordia.filesystem.ConsistencyChecker;
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.Snapshot;
+import ca.concordia.filesystem.datastructures.FEntry;
+import ca.concordia.filesystem.events.FileEvent;
+import ca.concordia.filesystem.events.Subscription;
+import helpers.GatedFileChannel;
 import org.junit.jupiter.api.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class FileSystemTests {
@@ -8,6 +17,8 @@ public class FileSystemTests {
 
     @BeforeAll
     static void setup() throws Exception {
+        // the volume is persistent now; start every run from a freshly formatted one
+        Files.deleteIfExists(Path.of("testfs.dat"));
         fs = new FileSystemManager("testfs.dat", 10 * 128);
     }
 
@@ -54,4 +65,198 @@ public class FileSystemTests {
             assertNotEquals("b.txt", fileName);
         }
     }
+
+    @Test
+    void testListPaginationAndStat() throws Exception {
+        fs.createFile("pg2");
+        fs.createFile("pg1");
+        try {
+            assertArrayEquals(new String[]{"pg1"}, fs.listFiles("pg", null, 1));
+            assertArrayEquals(new String[]{"pg2"}, fs.listFiles("pg", "pg1", 10));
+            assertEquals(0, fs.listFiles("pg", "pg2", 10).length);
+            assertEquals(0, fs.listFiles("pg", "zz", 10).length);
+            assertEquals(2, fs.listFiles("pg", "a", 10).length);
+            assertEquals(0, fs.statFile("pg1").getFilesize());
+        } finally {
+            fs.deleteFile("pg1");
+            fs.deleteFile("pg2");
+        }
+    }
+
+    @Test
+    void testWatchEventsAreCoalesced() throws Exception {
+        Subscription watch = fs.getEventBus().subscribe("ev*");
+        try {
+            fs.createFile("ev1");
+            fs.deleteFile("ev1"); // cancels out with the CREATED
+            fs.createFile("ev2");
+            fs.createFile("other");
+            fs.deleteFile("other");
+
+            assertEquals(1, watch.pendingCount());
+            FileEvent event = watch.take();
+            assertEquals(FileEvent.Type.CREATED, event.getType());
+            assertEquals("ev2", event.getFilename());
+        } finally {
+            watch.cancel();
+            fs.deleteFile("ev2");
+        }
+    }
+
+    @Test
+    void testSmallFilesStayInline() throws Exception {
+        int freeBefore = fs.numFreeBlocks();
+        fs.createFile("tiny");
+        try {
+            fs.writeFile("tiny", "small".getBytes());
+            assertEquals(freeBefore, fs.numFreeBlocks());
+            assertTrue(fs.statFile("tiny").isInline());
+            assertEquals("small", new String(fs.readFile("tiny")));
+
+            // grows past the inline area: moved to blocks
+            String large = "x".repeat(FEntry.INLINE_BYTES + 1);
+            fs.writeFile("tiny", large.getBytes());
+            assertEquals(freeBefore - 1, fs.numFreeBlocks());
+            assertFalse(fs.statFile("tiny").isInline());
+            assertEquals(large, new String(fs.readFile("tiny")));
+
+            // and back inline when it shrinks again
+            fs.writeFile("tiny", "again".getBytes());
+            assertEquals(freeBefore, fs.numFreeBlocks());
+            assertEquals("again", new String(fs.readFile("tiny")));
+        } finally {
+            fs.deleteFile("tiny");
+        }
+    }
+
+    @Test
+    void testSnapshotKeepsOldContents() throws Exception {
+        int freeBefore = fs.numFreeBlocks();
+        // too long to be stored inline, so the snapshot has to pin a block
+        String before = "before".repeat(10);
+        fs.createFile("snap");
+        fs.writeFile("snap", before.getBytes());
+        Snapshot snapshot = fs.createSnapshot();
+
+        fs.writeFile("snap", "after".getBytes());
+        assertEquals("after", new String(fs.readFile("snap")));
+        assertEquals(before, new String(fs.readFile("snap", snapshot.getId())));
+
+        fs.deleteFile("snap");
+        assertEquals(before, new String(fs.readFile("snap", snapshot.getId())));
+        // the snapshot still holds the old block
+        assertEquals(freeBefore - 1, fs.numFreeBlocks());
+
+        fs.dropSnapshot(snapshot.getId());
+        assertEquals(freeBefore, fs.numFreeBlocks());
+        assertThrows(Exception.class, () -> fs.readFile("snap", snapshot.getId()));
+    }
+
+    @Test
+    @Timeout(10)
+    void testRewriteAfterSnapshotOnNearlyFullVolume() throws Exception {
+        Files.deleteIfExists(Path.of("pinnedfs.dat"));
+        try {
+            // 7 data blocks of 128 bytes
+            FileSystemManager volume = new FileSystemManager("pinnedfs.dat", 10 * 128);
+            String old = "o".repeat(512);
+            volume.createFile("a");
+            volume.writeFile("a", old.getBytes()); // 4 blocks
+            Snapshot snapshot = volume.createSnapshot();
+
+            // the snapshot pins all 4 blocks and only 3 are free: the write fails cleanly
+            assertThrows(Exception.class, () -> volume.writeFile("a", "n".repeat(512).getBytes()));
+            assertEquals(old, new String(volume.readFile("a")));
+            assertEquals(3, volume.numFreeBlocks());
+
+            volume.writeFile("a", "n".repeat(384).getBytes());
+            assertEquals("n".repeat(384), new String(volume.readFile("a")));
+            assertEquals(old, new String(volume.readFile("a", snapshot.getId())));
+            assertEquals(0, volume.numFreeBlocks());
+
+            // with nothing pinned a rewrite may reuse the file's own blocks on a full volume
+            volume.dropSnapshot(snapshot.getId());
+            volume.writeFile("a", "x".repeat(7 * 128).getBytes());
+            assertEquals("x".repeat(7 * 128), new String(volume.readFile("a")));
+
+            ConsistencyChecker check = volume.startConsistencyCheck();
+            while (check.getState() == ConsistencyChecker.State.RUNNING) {
+                Thread.sleep(10);
+            }
+            assertEquals(ConsistencyChecker.State.CLEAN, check.getState(), check.getProblems().toString());
+        } finally {
+            Files.deleteIfExists(Path.of("pinnedfs.dat"));
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testFailedWriteKeepsOldContentsAndBlocks() throws Exception {
+        Files.deleteIfExists(Path.of("failfs.dat"));
+        try {
+            GatedFileChannel[] channel = new GatedFileChannel[1];
+            FileSystemManager volume = new FileSystemManager("failfs.dat", 10 * 128, false,
+                    c -> channel[0] = new GatedFileChannel(c));
+            String old = "o".repeat(300);
+            volume.createFile("a");
+            volume.writeFile("a", old.getBytes()); // 3 of the 7 data blocks
+            assertEquals(4, volume.numFreeBlocks());
+
+            channel[0].failWrites(true);
+            assertThrows(Exception.class, () -> volume.writeFile("a", "n".repeat(256).getBytes()));
+            assertThrows(Exception.class, () -> volume.deleteFile("a"));
+            channel[0].failWrites(false);
+
+            assertEquals(old, new String(volume.readFile("a")));
+            assertEquals(4, volume.numFreeBlocks());
+            ConsistencyChecker check = volume.startConsistencyCheck();
+            while (check.getState() == ConsistencyChecker.State.RUNNING) {
+                Thread.sleep(10);
+            }
+            assertEquals(ConsistencyChecker.State.CLEAN, check.getState(), check.getProblems().toString());
+
+            // nothing of the failed writes reached the metadata on disk either
+            FileSystemManager reopened = new FileSystemManager("failfs.dat", 10 * 128);
+            assertEquals(old, new String(reopened.readFile("a")));
+            assertEquals(4, reopened.numFreeBlocks());
+        } finally {
+            Files.deleteIfExists(Path.of("failfs.dat"));
+        }
+    }
+
+    @Test
+    void testFilenameCannotContainSnapshotSeparator() {
+        Exception ex = assertThrows(Exception.class, () -> fs.createFile("a@1"));
+        assertTrue(ex.getMessage().contains("@"));
+    }
+
+    @Test
+    @Timeout(10)
+    void testLazyReopenAndBackgroundCheck() throws Exception {
+        Files.deleteIfExists(Path.of("lazyfs.dat"));
+        try {
+            FileSystemManager original = new FileSystemManager("lazyfs.dat", 10 * 128);
+            original.createFile("kept");
+            original.writeFile("kept", "x".repeat(200).getBytes());
+
+            FileSystemManager reopened = new FileSystemManager("lazyfs.dat", 10 * 128, true);
+            assertEquals("x".repeat(200), new String(reopened.readFile("kept")));
+            // "kept" is in the first FEntry region, so the rest of the tables were never read
+            assertFalse(reopened.isMetadataLoaded());
+
+            ConsistencyChecker check = reopened.startConsistencyCheck();
+            while (check.getState() == ConsistencyChecker.State.RUNNING) {
+                Thread.sleep(10);
+            }
+            assertEquals(ConsistencyChecker.State.CLEAN, check.getState(), check.getProblems().toString());
+            assertEquals(1, check.getFilesChecked());
+            assertEquals(100, check.getProgressPercent());
+
+            assertEquals(1, reopened.listFiles().length);
+            assertEquals(5, reopened.numFreeBlocks());
+            assertTrue(reopened.isMetadataLoaded());
+        } finally {
+            Files.deleteIfExists(Path.of("lazyfs.dat"));
+        }
+    }
 }
@@ -0,0 +1,185 @@
+import ca.concordia.server.FairScheduler;
+import ca.concordia.server.SchedulingConfig;
+import ca.concordia.server.TokenBucket;
+import ca.concordia.tracing.Phase;
+import ca.concordia.tracing.Trace;
+import ca.concordia.tracing.Tracer;
+import org.junit.jupiter.api.*;
+
+import java.net.InetAddress;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchedulerTests {
+
+    @Test
+    @Timeout(10)
+    void testReadsOvertakeQueuedBulkWrites() throws Exception {
+        FairScheduler scheduler = new FairScheduler(1, 10_000);
+        FairScheduler.Client writer = scheduler.register(1.0, 0, 0);
+        FairScheduler.Client reader = scheduler.register(1.0, 0, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            // occupy the only worker so that the next two operations queue up
+            pool.submit(() -> writer.execute(FairScheduler.OpClass.WRITE, 0, () -> {
+                started.countDown();
+                release.await();
+                return null;
+            }));
+            started.await();
+
+            Future<?> bulk = pool.submit(() -> writer.execute(FairScheduler.OpClass.BULK, 4096, () -> order.add("bulk")));
+            while (scheduler.queuedCount() < 1) Thread.sleep(10);
+            Future<?> read = pool.submit(() -> reader.execute(FairScheduler.OpClass.READ, 0, () -> order.add("read")));
+            while (scheduler.queuedCount() < 2) Thread.sleep(10);
+
+            release.countDown();
+            bulk.get();
+            read.get();
+            assertArrayEquals(new String[]{"read", "bulk"}, order.toArray(new String[0]));
+        } finally {
+            pool.shutdownNow();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void testOperationExceptionIsRethrown() {
+        FairScheduler scheduler = new FairScheduler(1, 100);
+        try {
+            FairScheduler.Client client = scheduler.register(1.0, 0, 0);
+            Exception ex = assertThrows(Exception.class, () -> client.execute(FairScheduler.OpClass.READ, 0, () -> {
+                throw new Exception("ERROR: file x does not exist");
+            }));
+            assertEquals("ERROR: file x does not exist", ex.getMessage());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void testTraceFollowsOperationToWorker() throws Exception {
+        FairScheduler scheduler = new FairScheduler(1, 100);
+        Tracer tracer = new Tracer(1, 60_000);
+        try {
+            FairScheduler.Client client = scheduler.register(1.0, 0, 0);
+            Trace trace = tracer.begin();
+            Trace seenByWorker = client.execute(FairScheduler.OpClass.READ, 0, () -> {
+                Thread.sleep(20);
+                return Trace.current();
+            });
+            tracer.finish(trace, "READ", "a.txt");
+
+            assertSame(trace, seenByWorker);
+            assertSame(Trace.NONE, Trace.current()); // detached again
+            assertTrue(trace.getPhaseNanos(Phase.METADATA) >= 20_000_000);
+            assertEquals(1, tracer.getTracedCount());
+            assertEquals(0, tracer.getSlowCount());
+            assertSame(Trace.NONE, Tracer.disabled().begin());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void testRequestThatSkipsTheSchedulerIsChargedToParse() throws Exception {
+        Tracer tracer = new Tracer(1, 60_000);
+        Trace rejected = tracer.begin();
+        Thread.sleep(5);
+        rejected.markIfFirst(Phase.PARSE);
+        tracer.finish(rejected, "READ", null);
+        assertTrue(rejected.getPhaseNanos(Phase.PARSE) >= 5_000_000);
+
+        // once a phase is marked, markIfFirst leaves the rest to the later phases
+        Trace inline = tracer.begin();
+        inline.mark(Phase.PARSE);
+        long parsed = inline.getPhaseNanos(Phase.PARSE);
+        Thread.sleep(5);
+        inline.markIfFirst(Phase.PARSE);
+        tracer.finish(inline, "STATS", null);
+        assertEquals(parsed, inline.getPhaseNanos(Phase.PARSE));
+        assertTrue(inline.getPhaseNanos(Phase.RESPONSE) >= 5_000_000);
+    }
+
+    @Test
+    void testTokenBucketThrottlesAfterBurst() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 5);
+        long start = System.nanoTime();
+        for (int i = 0; i < 15; i++) {
+            bucket.acquire(1);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        // 5 tokens of burst, the other 10 arrive at 100/s
+        assertTrue(elapsedMillis >= 80, "Bucket did not throttle: " + elapsedMillis + "ms");
+    }
+
+    @Test
+    @Timeout(10)
+    void testShutdownFailsQueuedOperations() throws Exception {
+        FairScheduler scheduler = new FairScheduler(1, 100);
+        FairScheduler.Client client = scheduler.register(1.0, 0, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            Future<String> running = pool.submit(() -> client.execute(FairScheduler.OpClass.WRITE, 0, () -> {
+                started.countDown();
+                release.await();
+                return "done";
+            }));
+            started.await();
+            Future<String> queued = pool.submit(() -> client.execute(FairScheduler.OpClass.READ, 0, () -> "never"));
+            while (scheduler.queuedCount() < 1) Thread.sleep(10);
+
+            scheduler.shutdown();
+            ExecutionException e = assertThrows(ExecutionException.class, queued::get);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertEquals(0, scheduler.queuedCount());
+
+            release.countDown();
+            assertEquals("done", running.get()); // the running op still finishes
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testChargedReadBytesDelayTheNextRequest() throws Exception {
+        FairScheduler scheduler = new FairScheduler(1, 100);
+        try {
+            // 10 KB/s with a 10 KB burst: a 15 KB read leaves 5 KB of debt, about 500ms
+            FairScheduler.Client client = scheduler.register(1.0, 0, 10_000);
+            client.execute(FairScheduler.OpClass.READ, 0, () -> null);
+            client.charge(15_000);
+
+            long start = System.nanoTime();
+            client.execute(FairScheduler.OpClass.READ, 0, () -> null);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis >= 400, "Read bytes were not charged: " + elapsedMillis + "ms");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void testSchedulingConfigGivesEachAddressItsLimits() throws Exception {
+        SchedulingConfig config = new SchedulingConfig(2, 50, 1024, new SchedulingConfig.ClientLimits(1.0, 0, 0));
+        config.setClientLimits(InetAddress.getByName("10.0.0.7"), new SchedulingConfig.ClientLimits(4.0, 100, 0));
+
+        SchedulingConfig.ClientLimits heavy = config.limitsFor(InetAddress.getByName("10.0.0.7"));
+        assertEquals(4.0, heavy.getWeight());
+        assertEquals(100, heavy.getOpsPerSecond());
+        SchedulingConfig.ClientLimits other = config.limitsFor(InetAddress.getLoopbackAddress());
+        assertSame(config.getDefaultLimits(), other);
+        assertEquals(1024, config.getBulkWriteBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> new SchedulingConfig.ClientLimits(0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new SchedulingConfig(0, 50, 1024, other));
+    }
+}
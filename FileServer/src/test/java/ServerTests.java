@@ -5,7 +5,13 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -41,6 +47,22 @@ public class ServerTests {
         assertNotNull(ok, "Server did not respond after error");
     }
 
+    @Test
+    void testStatShowsInlineFiles() throws Exception {
+        ClientRunner.send("DELETE st1");
+        assertTrue(ClientRunner.send("CREATE st1").startsWith("SUCCESS"));
+        try {
+            ClientRunner.send("WRITE st1 small");
+            assertEquals("st1 size=5 firstBlock=inline", ClientRunner.send("STAT st1"));
+
+            ClientRunner.send("WRITE st1 " + "x".repeat(40));
+            String stat = ClientRunner.send("STAT st1");
+            assertTrue(stat.matches("st1 size=40 firstBlock=\\d+"), stat);
+        } finally {
+            ClientRunner.send("DELETE st1");
+        }
+    }
+
     @Test
     void testMalformedInputDoesNotCrashServer() throws Exception {
         for (String cmd : new String[]{"", "BADCOMMAND", "CREATE", "WRITE", "READ", "DELETE"}) {
@@ -71,6 +93,93 @@ public class ServerTests {
         assertTrue(latch.await(15, TimeUnit.SECONDS), "Server scaled poorly under 100 clients");
     }
 
+    @Test
+    @Timeout(10)
+    void testWatchConnectionOnlyCarriesEvents() throws Exception {
+        ClientRunner.send("DELETE wt1");
+        try (Socket s = new Socket("localhost", 12345);
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            s.setSoTimeout(5000);
+            out.println("WATCH wt*");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            out.println("LIST");
+            assertTrue(in.readLine().startsWith("ERROR"), "commands are refused once the connection watches");
+
+            String created = ClientRunner.send("CREATE wt1");
+            assertTrue(created.startsWith("SUCCESS"), created);
+            assertEquals("EVENT CREATED wt1", in.readLine());
+
+            for (int i = 2; i <= 8; i++) {
+                out.println("WATCH x" + i);
+                assertTrue(in.readLine().startsWith("SUCCESS"));
+            }
+            out.println("WATCH x9");
+            assertTrue(in.readLine().startsWith("ERROR"), "watches per connection are capped");
+        } finally {
+            ClientRunner.send("DELETE wt1");
+        }
+    }
+
+    private static long serverThreads() throws IOException {
+        String stats = ClientRunner.send("STATS");
+        return Long.parseLong(stats.replaceAll(".* threads=(\\d+) .*", "$1"));
+    }
+
+    @Test
+    @Timeout(20)
+    void testWatchReplyComesFirstAndOnePusherServesAllWatches() throws Exception {
+        // keeps ev1 changing while watches on it are set up
+        Thread churn = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    ClientRunner.send("CREATE ev1");
+                    ClientRunner.send("DELETE ev1");
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        churn.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                try (Socket s = new Socket("localhost", 12345);
+                     PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+                    s.setSoTimeout(5000);
+                    out.println("WATCH ev1");
+                    assertEquals("SUCCESS: Watching 'ev1'.", in.readLine());
+                    assertTrue(in.readLine().startsWith("EVENT "));
+                }
+            }
+        } finally {
+            churn.interrupt();
+            churn.join();
+            ClientRunner.send("DELETE ev1");
+        }
+
+        long before = serverThreads();
+        try (Socket s = new Socket("localhost", 12345);
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            s.setSoTimeout(5000);
+            for (String pattern : new String[]{"ew1", "ew2", "ew3"}) {
+                out.println("WATCH " + pattern);
+                assertTrue(in.readLine().startsWith("SUCCESS"));
+            }
+            // the connection's own thread plus a single pusher
+            assertTrue(serverThreads() - before <= 2, "threads " + before + " -> " + serverThreads());
+
+            Set<String> events = new HashSet<>();
+            for (String name : new String[]{"ew1", "ew2", "ew3"}) {
+                assertTrue(ClientRunner.send("CREATE " + name).startsWith("SUCCESS"));
+            }
+            for (int i = 0; i < 3; i++) events.add(in.readLine());
+            assertEquals(Set.of("EVENT CREATED ew1", "EVENT CREATED ew2", "EVENT CREATED ew3"), events);
+        } finally {
+            for (String name : new String[]{"ew1", "ew2", "ew3"}) ClientRunner.send("DELETE " + name);
+        }
+    }
+
     @Test
     void testServerRestartPersistence() throws Exception {
         // Step 1: Start server
@@ -0,0 +1,195 @@
+import ca.concordia.server.tls.TlsConnection;
+import ca.concordia.server.tls.TlsContext;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TlsTests {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @TempDir
+    static Path dir;
+    static String keyStore;
+    // trusts the generated certificate
+    static SSLContext clientContext;
+
+    @BeforeAll
+    static void generateKeyStore() throws Exception {
+        keyStore = dir.resolve("server.p12").toString();
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", keyStore, "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertEquals(0, process.waitFor(), output);
+
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(KeyStore.getInstance(new File(keyStore), PASSWORD));
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trust.getTrustManagers(), null);
+    }
+
+    // Accepts one connection and answers every line with the same line, over TLS
+    private static CompletableFuture<Void> echoOnce(ServerSocketChannel server, TlsContext tls) {
+        return CompletableFuture.runAsync(() -> {
+            try (SocketChannel channel = server.accept();
+                 TlsConnection connection = tls.open(channel)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = connection.getOutputStream();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static ServerSocketChannel listen() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return server;
+    }
+
+    @Test
+    @Timeout(20)
+    void testLinesRoundTripOverTls() throws Exception {
+        TlsContext tls = TlsContext.fromKeyStore(keyStore, PASSWORD);
+        try (ServerSocketChannel server = listen()) {
+            CompletableFuture<Void> echo = echoOnce(server, tls);
+            try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory()
+                    .createSocket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort())) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+
+                out.println("WRITE a hello");
+                assertEquals("WRITE a hello", in.readLine());
+                // bigger than one TLS record (16KB) both ways
+                String large = "x".repeat(40_000);
+                out.println(large);
+                assertEquals(large, in.readLine());
+            }
+            echo.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testCloseFromTwoThreadsIsSafe() throws Exception {
+        TlsContext tls = TlsContext.fromKeyStore(keyStore, PASSWORD);
+        try (ServerSocketChannel server = listen()) {
+            CompletableFuture<TlsConnection> opened = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return tls.open(server.accept());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory()
+                    .createSocket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort())) {
+                socket.startHandshake();
+                TlsConnection connection = opened.get(5, TimeUnit.SECONDS);
+
+                // like the request handler and a WATCH pusher going away at the same time
+                CompletableFuture<Void> other = CompletableFuture.runAsync(connection::close);
+                connection.close();
+                other.get(5, TimeUnit.SECONDS);
+
+                assertThrows(IOException.class, () -> connection.getOutputStream().write('x'));
+                assertThrows(IOException.class, () -> connection.getInputStream().read());
+                assertEquals(-1, socket.getInputStream().read());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testCloseDoesNotWaitForAStuckWriter() throws Exception {
+        TlsContext tls = TlsContext.fromKeyStore(keyStore, PASSWORD);
+        try (ServerSocketChannel server = listen()) {
+            CompletableFuture<TlsConnection> opened = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return tls.open(server.accept());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory()
+                    .createSocket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort())) {
+                socket.startHandshake();
+                TlsConnection connection = opened.get(5, TimeUnit.SECONDS);
+
+                // like a WATCH pusher on a client that stopped reading: one write far bigger
+                // than the socket buffers blocks, holding the write side
+                byte[] huge = new byte[64 * 1024 * 1024];
+                CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                    try {
+                        connection.getOutputStream().write(huge);
+                    } catch (IOException e) {
+                        // closed under it
+                    }
+                });
+                Thread.sleep(500);
+                assertFalse(writer.isDone(), "the writer should be stuck");
+
+                long start = System.nanoTime();
+                connection.close();
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                writer.get(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testStalledHandshakeTimesOut() throws Exception {
+        TlsContext tls = new TlsContext(sslContextFor(keyStore), 300);
+        try (ServerSocketChannel server = listen()) {
+            CompletableFuture<TlsConnection> opened = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return tls.open(server.accept());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            // connects but never sends a ClientHello
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort())) {
+                long start = System.nanoTime();
+                Throwable error = assertThrows(Exception.class, () -> opened.get(5, TimeUnit.SECONDS)).getCause();
+                assertInstanceOf(SocketTimeoutException.class, error.getCause());
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+                assertEquals(-1, socket.getInputStream().read());
+            }
+        }
+    }
+
+    private static SSLContext sslContextFor(String path) throws Exception {
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(KeyStore.getInstance(new File(path), PASSWORD), PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), null, null);
+        return context;
+    }
+}
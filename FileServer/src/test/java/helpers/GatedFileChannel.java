@@ -0,0 +1,154 @@
+package helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// FileChannel wrapper for block I/O tests: hold() makes the next read/write block until
+// release(), so requests can pile up behind it, and failWrites() makes writes throw a
+// RuntimeException instead of writing.
+public class GatedFileChannel extends FileChannel {
+    private final FileChannel delegate;
+    private volatile CountDownLatch held;
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private volatile CountDownLatch gate;
+    private volatile boolean failWrites;
+
+    public GatedFileChannel(FileChannel delegate) {
+        this.delegate = delegate;
+    }
+
+    public void hold() {
+        gate = new CountDownLatch(1);
+        held = entered;
+    }
+
+    // Waits until a read/write is blocked in hold()
+    public void awaitHeld() throws InterruptedException {
+        if (!entered.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("nothing reached the gate");
+    }
+
+    public void release() {
+        gate.countDown();
+    }
+
+    public void failWrites(boolean fail) {
+        failWrites = fail;
+    }
+
+    private void pass() throws IOException {
+        CountDownLatch latch = held;
+        if (latch != null) {
+            held = null;
+            latch.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void checkWrite() {
+        if (failWrites) throw new IllegalStateException("injected write failure");
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        pass();
+        return delegate.read(dst);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        pass();
+        return delegate.read(dsts, offset, length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        pass();
+        checkWrite();
+        return delegate.write(src);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        pass();
+        checkWrite();
+        return delegate.write(srcs, offset, length);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return delegate.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+        delegate.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return delegate.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        delegate.truncate(size);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        delegate.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return delegate.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        return delegate.transferFrom(src, position, count);
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return delegate.read(dst, position);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        return delegate.write(src, position);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return delegate.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return delegate.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return delegate.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,49 @@
+package ca.concordia.loadtest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+
+// One persistent protocol connection; one request in flight at a time
+class Connection implements Closeable {
+
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final PrintWriter writer;
+
+    // TLS connections share the default SSLContext, so reconnects resume their session
+    // (trust store: -Djavax.net.ssl.trustStore=... -Djavax.net.ssl.trustStorePassword=...)
+    Connection(String host, int port, boolean tls) throws IOException {
+        SocketFactory factory = tls ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
+        socket = factory.createSocket(host, port);
+        socket.setTcpNoDelay(true);
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    String send(String line) throws IOException {
+        writer.println(line);
+        if (writer.checkError()) {
+            throw new IOException("Connection lost");
+        }
+        String response = reader.readLine();
+        if (response == null) {
+            throw new IOException("Connection closed by the server");
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
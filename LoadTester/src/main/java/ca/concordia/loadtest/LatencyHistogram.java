@@ -0,0 +1,108 @@
+package ca.concordia.loadtest;
+
+import java.util.Arrays;
+
+// Log-linear latency histogram in microseconds (about 3% precision, from 1us to hours) with
+// constant-time record(), so measuring does not disturb the measurement.
+// Values below 64us get one bucket each; above that every power of two is split into 32 buckets.
+public class LatencyHistogram {
+
+    private static final int LINEAR = 64;
+    private static final int SUB_BUCKETS = 32;
+    private static final int BUCKETS = LINEAR + 58 * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    public synchronized void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[bucketOf(micros)]++;
+        count++;
+        sum += micros;
+        max = Math.max(max, micros);
+    }
+
+    public synchronized void add(LatencyHistogram other) {
+        synchronized (other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+        }
+    }
+
+    // Copy of the current contents, then starts over (for per-interval reports)
+    public synchronized LatencyHistogram copyAndReset() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, BUCKETS);
+        copy.count = count;
+        copy.sum = sum;
+        copy.max = max;
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+        return copy;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized long maxMicros() {
+        return max;
+    }
+
+    public synchronized double meanMicros() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // Smallest bucket upper bound that covers the given fraction (0..1) of the samples
+    public synchronized long percentileMicros(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - 5; // keeps the top 6 bits: 32..63
+        int top = (int) (micros >>> shift);
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public static String format(long micros) {
+        if (micros < 1000) {
+            return micros + "us";
+        }
+        if (micros < 1_000_000) {
+            return String.format("%.1fms", micros / 1000.0);
+        }
+        return String.format("%.2fs", micros / 1_000_000.0);
+    }
+}
@@ -0,0 +1,123 @@
+package ca.concordia.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// Command line options of the load tester.
+//   --host <host>            server host (localhost)
+//   --port <port>            server port (12345)
+//   --connections <n>        concurrent connections, one worker thread each (8)
+//   --duration <seconds>     measured run time (30)
+//   --warmup <seconds>       unmeasured run time before that (2)
+//   --mix <op:weight,...>    e.g. create:1,write:3,read:5,delete:1,list:1 (the default)
+//   --mode closed|open       closed: every connection sends its next request as soon as the
+//                            previous answer arrives; open: requests arrive at --rate per second
+//                            no matter how fast the server answers
+//   --rate <ops/s>           arrival rate for --mode open (500)
+//   --files <n>              files each connection works on (2)
+//   --size <bytes>           payload size of a WRITE (64)
+//   --report <seconds>       interval between progress lines (5)
+//   --ops-per-connection <n> reconnect after every n requests, like short-lived clients
+//                            (default: keep each connection for the whole run)
+//   --tls                    connect with TLS
+//   --soak                   verify every READ against what was written, re-read all files
+//                            every --report interval, and check the server (STATS, LIST, FSCK) for
+//                            leaked connections, threads, fds, files and blocks at the end
+public class LoadConfig {
+
+    public enum Mode { CLOSED, OPEN }
+
+    String host = "localhost";
+    int port = 12345;
+    int connections = 8;
+    int durationSeconds = 30;
+    int warmupSeconds = 2;
+    final Map<Op, Integer> mix = new EnumMap<>(Op.class);
+    Mode mode = Mode.CLOSED;
+    int rate = 500;
+    int filesPerConnection = 2;
+    int payloadSize = 64;
+    int reportSeconds = 5;
+    int opsPerConnection = 0;
+    boolean tls = false;
+    boolean soak = false;
+
+    LoadConfig() {
+        mix.put(Op.CREATE, 1);
+        mix.put(Op.WRITE, 3);
+        mix.put(Op.READ, 5);
+        mix.put(Op.DELETE, 1);
+        mix.put(Op.LIST, 1);
+    }
+
+    static LoadConfig parse(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--soak")) {
+                config.soak = true;
+                continue;
+            }
+            if (arg.equals("--tls")) {
+                config.tls = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--host" -> config.host = value;
+                case "--port" -> config.port = Integer.parseInt(value);
+                case "--connections" -> config.connections = positive(arg, value);
+                case "--duration" -> config.durationSeconds = positive(arg, value);
+                case "--warmup" -> config.warmupSeconds = Integer.parseInt(value);
+                case "--mix" -> config.parseMix(value);
+                case "--mode" -> config.mode = Mode.valueOf(value.toUpperCase());
+                case "--rate" -> config.rate = positive(arg, value);
+                case "--files" -> config.filesPerConnection = positive(arg, value);
+                case "--size" -> config.payloadSize = positive(arg, value);
+                case "--report" -> config.reportSeconds = positive(arg, value);
+                case "--ops-per-connection" -> config.opsPerConnection = positive(arg, value);
+                default -> throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        return config;
+    }
+
+    private void parseMix(String value) {
+        mix.clear();
+        for (String part : value.split(",")) {
+            String[] kv = part.split(":");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Mix entries look like op:weight, got '" + part + "'");
+            }
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Mix weights cannot be negative.");
+            }
+            mix.put(Op.valueOf(kv[0].trim().toUpperCase()), weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("Mix needs at least one operation with a weight above 0.");
+        }
+    }
+
+    private static int positive(String option, String value) {
+        int n = Integer.parseInt(value);
+        if (n < 1) {
+            throw new IllegalArgumentException(option + " must be at least 1.");
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port + " connections=" + connections + " mode=" + mode
+                + (mode == Mode.OPEN ? " rate=" + rate + "/s" : "")
+                + " duration=" + durationSeconds + "s mix=" + mix
+                + " files/conn=" + filesPerConnection + " size=" + payloadSize
+                + (opsPerConnection > 0 ? " ops/conn=" + opsPerConnection : "")
+                + (tls ? " tls" : "") + (soak ? " soak" : "");
+    }
+}
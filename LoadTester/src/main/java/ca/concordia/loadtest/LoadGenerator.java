@@ -0,0 +1,299 @@
+package ca.concordia.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs one load test: starts the workers (and the arrival pacer for open-loop runs), prints a
+// progress line every report interval, then a per-op summary and, for soak runs, the leak check.
+//
+// Leaks are judged from the server's side: a monitor connection asks the server for STATS
+// (open connections, threads, file descriptors, heap, files, free blocks) before the run,
+// during soak runs and after it. This assumes the tester is the server's only client.
+public class LoadGenerator {
+
+    // how many open-loop arrivals may wait for a free worker before new ones are dropped
+    private static final int MAX_BACKLOG_SECONDS = 10;
+    // corruption details printed before only counting
+    private static final int MAX_CORRUPTION_REPORTS = 10;
+    // how long the server gets to close the workers' connections before counts are compared
+    private static final long SETTLE_MILLIS = 5000;
+    // STATS counters that must be back to their starting value (or lower) after the run
+    private static final String[] MUST_NOT_GROW = {"connections", "threads", "fds", "files"};
+
+    final LoadConfig config;
+    final long seed = System.nanoTime();
+    // prefix of every filename used in this run, so runs never see each other's files
+    final String tag;
+
+    volatile boolean measuring = false;
+    volatile boolean stopping = false;
+    // intended start times (System.nanoTime) of open-loop requests
+    final LinkedBlockingQueue<Long> arrivals = new LinkedBlockingQueue<>();
+
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong corruptions = new AtomicLong();
+    final AtomicLong connectionFailures = new AtomicLong();
+    final AtomicLong droppedArrivals = new AtomicLong();
+
+    private final List<Worker> workers = new ArrayList<>();
+    // STATS/LIST/FSCK; open for the whole run so it counts the same before and after
+    private Connection monitor;
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+        Random random = new Random(seed);
+        this.tag = "" + (char) ('a' + random.nextInt(26)) + (char) ('a' + random.nextInt(26));
+        if ((tag + (config.connections - 1) + "f" + (config.filesPerConnection - 1)).length() > 11) {
+            throw new IllegalArgumentException("Too many connections/files for 11-byte filenames.");
+        }
+    }
+
+    // Returns true when the run finished without corruption or leaks
+    public boolean run() throws InterruptedException {
+        System.out.println("Load test " + config + " (files " + tag + "*)");
+        Map<String, Long> before = null;
+        try {
+            monitor = new Connection(config.host, config.port, config.tls);
+            before = serverStats();
+            if (before == null) {
+                System.out.println("Server does not answer STATS; leak check limited to files and FSCK.");
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot reach the server: " + e.getMessage());
+            return false;
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < config.connections; i++) {
+            Worker worker = new Worker(i, this);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "load-worker-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        Thread pacer = null;
+        if (config.mode == LoadConfig.Mode.OPEN) {
+            pacer = new Thread(this::pace, "load-pacer");
+            pacer.setDaemon(true);
+            pacer.start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.warmupSeconds));
+        measuring = true;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+
+        long lastReport = start;
+        while (System.nanoTime() < end) {
+            long next = Math.min(end, lastReport + TimeUnit.SECONDS.toNanos(config.reportSeconds));
+            TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+            long now = System.nanoTime();
+            reportInterval((now - start) / 1_000_000_000.0, (now - lastReport) / 1_000_000_000.0);
+            lastReport = now;
+        }
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+        measuring = false;
+        stopping = true;
+        if (pacer != null) pacer.interrupt();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        printSummary(elapsed);
+        boolean clean = checkForLeaks(before) && corruptions.get() == 0;
+        monitor.close();
+        return clean;
+    }
+
+    // Open-loop arrivals at a fixed rate, independent of how fast requests complete
+    private void pace() {
+        long period = 1_000_000_000L / config.rate;
+        long next = System.nanoTime();
+        while (!stopping) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                if (Thread.currentThread().isInterrupted()) return;
+                continue;
+            }
+            if (arrivals.size() >= (long) config.rate * MAX_BACKLOG_SECONDS) {
+                droppedArrivals.incrementAndGet();
+            } else {
+                arrivals.add(next);
+            }
+            next += period;
+        }
+    }
+
+    void corruption(String detail) {
+        if (corruptions.incrementAndGet() <= MAX_CORRUPTION_REPORTS) {
+            System.err.println("CORRUPTION: " + detail);
+        }
+    }
+
+    private void reportInterval(double at, double seconds) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (Worker worker : workers) {
+            for (Op op : Op.values()) {
+                merged.add(worker.interval(op).copyAndReset());
+            }
+        }
+        StringBuilder line = new StringBuilder(String.format("[%5.0fs] %8.1f ops/s  p50=%s p99=%s p999=%s  errors=%d",
+                at, merged.count() / seconds,
+                LatencyHistogram.format(merged.percentileMicros(0.50)),
+                LatencyHistogram.format(merged.percentileMicros(0.99)),
+                LatencyHistogram.format(merged.percentileMicros(0.999)),
+                errors.get()));
+        if (config.mode == LoadConfig.Mode.OPEN) {
+            line.append(" backlog=").append(arrivals.size()).append(" dropped=").append(droppedArrivals.get());
+        }
+        if (config.soak) {
+            line.append(" corruptions=").append(corruptions.get())
+                    .append(" reconnects=").append(connectionFailures.get());
+            try {
+                Map<String, Long> stats = serverStats();
+                if (stats != null) {
+                    line.append("  server: connections=").append(stats.get("connections"))
+                            .append(" threads=").append(stats.get("threads"))
+                            .append(" fds=").append(stats.get("fds"))
+                            .append(" heap=").append(stats.get("heapKB") / 1024).append("MB");
+                }
+            } catch (IOException e) {
+                line.append("  server: STATS failed (").append(e.getMessage()).append(")");
+            }
+        }
+        System.out.println(line);
+    }
+
+    private void printSummary(double elapsed) {
+        System.out.println();
+        System.out.printf("%-7s %10s %10s %9s %9s %9s %9s %9s%n", "op", "count", "ops/s", "mean", "p50", "p99", "p999", "max");
+        LatencyHistogram all = new LatencyHistogram();
+        for (Op op : Op.values()) {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (Worker worker : workers) {
+                merged.add(worker.total(op));
+            }
+            all.add(merged);
+            if (merged.count() > 0) {
+                printRow(op.name(), merged, elapsed);
+            }
+        }
+        printRow("total", all, elapsed);
+        System.out.println("errors=" + errors.get() + " corruptions=" + corruptions.get()
+                + " reconnects=" + connectionFailures.get()
+                + (config.mode == LoadConfig.Mode.OPEN ? " dropped=" + droppedArrivals.get() : ""));
+    }
+
+    private static void printRow(String name, LatencyHistogram h, double elapsed) {
+        System.out.printf("%-7s %10d %10.1f %9s %9s %9s %9s %9s%n", name, h.count(), h.count() / elapsed,
+                LatencyHistogram.format((long) h.meanMicros()),
+                LatencyHistogram.format(h.percentileMicros(0.50)),
+                LatencyHistogram.format(h.percentileMicros(0.99)),
+                LatencyHistogram.format(h.percentileMicros(0.999)),
+                LatencyHistogram.format(h.maxMicros()));
+    }
+
+    // After the workers deleted their files and disconnected, nothing with this run's tag may be
+    // left, the server's connection/thread/fd/file counts and free blocks must be back where
+    // they started and (for soak runs) FSCK must find no lost or shared blocks
+    private boolean checkForLeaks(Map<String, Long> before) {
+        boolean clean = true;
+        try {
+            if (before != null) {
+                clean = compareStats(before);
+            }
+
+            List<String> leftover = new ArrayList<>();
+            for (String name : monitor.send("LIST " + tag).trim().split(" ")) {
+                if (!name.isBlank() && !name.startsWith("NEXT=")) {
+                    leftover.add(name);
+                }
+            }
+            if (!leftover.isEmpty()) {
+                System.out.println("LEAK: file(s) left behind: " + leftover);
+                clean = false;
+            }
+
+            if (config.soak) {
+                String status = monitor.send("FSCK START");
+                if (!status.startsWith("ERROR")) {
+                    do {
+                        Thread.sleep(100);
+                        status = monitor.send("FSCK");
+                    } while (status.startsWith("FSCK: running"));
+                }
+                System.out.println(status);
+                if (!status.startsWith("FSCK: clean")) {
+                    clean = false;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Leak check failed: " + e.getMessage());
+            clean = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            clean = false;
+        }
+        if (clean) {
+            System.out.println("No leaks found.");
+        }
+        return clean;
+    }
+
+    // Waits up to SETTLE_MILLIS for the server to get back to its starting counts, then
+    // reports whatever is still above them
+    private boolean compareStats(Map<String, Long> before) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        List<String> grown;
+        Map<String, Long> after;
+        while (true) {
+            after = serverStats();
+            grown = new ArrayList<>();
+            for (String key : MUST_NOT_GROW) {
+                if (after.get(key) > before.get(key)) {
+                    grown.add(key + " " + before.get(key) + " -> " + after.get(key));
+                }
+            }
+            if (after.get("freeBlocks") < before.get("freeBlocks")) {
+                grown.add("used blocks " + before.get("freeBlocks") + " -> " + after.get("freeBlocks") + " free");
+            }
+            if (grown.isEmpty() || System.currentTimeMillis() >= deadline) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        System.out.println("Server heap " + before.get("heapKB") / 1024 + "MB -> " + after.get("heapKB") / 1024 + "MB");
+        for (String leak : grown) {
+            System.out.println("LEAK: server " + leak);
+        }
+        return grown.isEmpty();
+    }
+
+    // The monitor's STATS line as name -> value, or null if the server does not know STATS
+    private Map<String, Long> serverStats() throws IOException {
+        return parseStats(monitor.send("STATS"));
+    }
+
+    static Map<String, Long> parseStats(String line) {
+        if (!line.startsWith("STATS ")) {
+            return null;
+        }
+        Map<String, Long> stats = new HashMap<>();
+        for (String field : line.substring("STATS ".length()).trim().split(" ")) {
+            int eq = field.indexOf('=');
+            if (eq > 0) {
+                stats.put(field.substring(0, eq), Long.parseLong(field.substring(eq + 1)));
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,23 @@
+package ca.concordia.loadtest;
+
+// Usage: Main [options] (see LoadConfig)
+// e.g. a 10 minute soak against a local server:
+//   Main --connections 4 --files 1 --duration 600 --soak
+// or an open-loop latency run at 2000 requests/s:
+//   Main --mode open --rate 2000 --mix read:9,write:1
+// Exits with status 1 when corruption or leaks were found.
+public class Main {
+    public static void main(String[] args) throws InterruptedException {
+        LoadConfig config;
+        try {
+            config = LoadConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        boolean clean = new LoadGenerator(config).run();
+        System.exit(clean ? 0 : 1);
+    }
+}
@@ -0,0 +1,10 @@
+package ca.concordia.loadtest;
+
+// Operations the load generator can issue, in the order they are reported
+public enum Op {
+    CREATE,
+    WRITE,
+    READ,
+    DELETE,
+    LIST
+}
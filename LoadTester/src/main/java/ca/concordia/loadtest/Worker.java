@@ -0,0 +1,290 @@
+package ca.concordia.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// One connection's worth of load. Every worker only touches its own files (<tag><id>f<k>), so it
+// knows exactly what each of them must contain and can spot corruption without coordination.
+// When the connection drops before a CREATE/WRITE/DELETE is answered, the server may or may not
+// have done it: that file is no longer trusted and is deleted (reply ignored) before the worker
+// goes on, instead of being reported as corrupt later.
+class Worker implements Runnable {
+
+    private static final char[] PAYLOAD_CHARS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+    private final int id;
+    private final LoadGenerator run;
+    private final LoadConfig config;
+    private final Random random;
+    private final Op[] weightedOps;
+
+    // filename -> content it must have ("" right after CREATE)
+    private final Map<String, String> owned = new LinkedHashMap<>();
+    // files whose last change was sent but never answered
+    private final Set<String> unknown = new HashSet<>();
+    // the file the request in flight changes, if any
+    private String changing;
+    private final Map<Op, LatencyHistogram> total = new EnumMap<>(Op.class);
+    private final Map<Op, LatencyHistogram> interval = new EnumMap<>(Op.class);
+
+    private Connection connection;
+    private int opsOnConnection;
+    private long nextSweep;
+
+    Worker(int id, LoadGenerator run) {
+        this.id = id;
+        this.run = run;
+        this.config = run.config;
+        this.random = new Random(run.seed + id);
+
+        List<Op> ops = new ArrayList<>();
+        for (Map.Entry<Op, Integer> entry : config.mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                ops.add(entry.getKey());
+            }
+        }
+        this.weightedOps = ops.toArray(new Op[0]);
+
+        for (Op op : Op.values()) {
+            total.put(op, new LatencyHistogram());
+            interval.put(op, new LatencyHistogram());
+        }
+    }
+
+    LatencyHistogram total(Op op) {
+        return total.get(op);
+    }
+
+    LatencyHistogram interval(Op op) {
+        return interval.get(op);
+    }
+
+    @Override
+    public void run() {
+        nextSweep = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.reportSeconds);
+        try {
+            while (!run.stopping) {
+                long intended;
+                if (config.mode == LoadConfig.Mode.OPEN) {
+                    Long arrival = run.arrivals.poll(100, TimeUnit.MILLISECONDS);
+                    if (arrival == null) continue;
+                    // measured from when the request was due, not from when a worker got to it,
+                    // so a stalled server shows up in the latencies (no coordinated omission)
+                    intended = arrival;
+                } else {
+                    intended = System.nanoTime();
+                }
+
+                if (!ensureConnected()) continue;
+                Op requested = weightedOps[random.nextInt(weightedOps.length)];
+                try {
+                    Op done = perform(requested);
+                    if (run.measuring) {
+                        long latency = System.nanoTime() - intended;
+                        total.get(done).record(latency);
+                        interval.get(done).record(latency);
+                    }
+                    if (config.soak && System.nanoTime() >= nextSweep) {
+                        sweep();
+                        nextSweep = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.reportSeconds);
+                    }
+                    if (config.opsPerConnection > 0 && ++opsOnConnection >= config.opsPerConnection) {
+                        dropConnection(); // the next request pays for a new connection (and handshake)
+                    }
+                } catch (IOException e) {
+                    run.connectionFailures.incrementAndGet();
+                    forgetChanging();
+                    dropConnection();
+                }
+            }
+            cleanup();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dropConnection();
+        }
+    }
+
+    // Issues the requested op, or the closest one that makes sense for the files this worker owns
+    // (e.g. a READ with no files becomes a CREATE). Returns the op that was actually sent.
+    private Op perform(Op op) throws IOException {
+        settleUnknown();
+        if (op != Op.CREATE && op != Op.LIST && owned.isEmpty()) {
+            op = Op.CREATE;
+        }
+        if (op == Op.CREATE && owned.size() == config.filesPerConnection) {
+            op = Op.WRITE;
+        }
+
+        switch (op) {
+            case CREATE: {
+                String name = unusedName();
+                changing = name;
+                String response = connection.send("CREATE " + name);
+                if (isError(response)) {
+                    run.errors.incrementAndGet();
+                    if (response.contains("already exists")) {
+                        // nobody else uses this name: the server kept a file this worker deleted
+                        run.corruption("CREATE " + name + ": " + response);
+                    }
+                } else {
+                    owned.put(name, "");
+                }
+                break;
+            }
+            case WRITE: {
+                String name = anyOwned();
+                String content = payload();
+                changing = name;
+                String response = connection.send("WRITE " + name + " " + content);
+                if (isError(response)) {
+                    // e.g. the volume is full; the old content must still be there
+                    run.errors.incrementAndGet();
+                } else {
+                    owned.put(name, content);
+                }
+                break;
+            }
+            case READ: {
+                String name = anyOwned();
+                verify(name, connection.send("READ " + name));
+                break;
+            }
+            case DELETE: {
+                String name = anyOwned();
+                changing = name;
+                String response = connection.send("DELETE " + name);
+                if (isError(response)) {
+                    run.errors.incrementAndGet();
+                    run.corruption("DELETE " + name + ": " + response);
+                }
+                owned.remove(name);
+                break;
+            }
+            case LIST: {
+                if (isError(connection.send("LIST"))) {
+                    run.errors.incrementAndGet();
+                }
+                break;
+            }
+        }
+        changing = null;
+        return op;
+    }
+
+    private void forgetChanging() {
+        if (changing != null) {
+            owned.remove(changing);
+            unknown.add(changing);
+            changing = null;
+        }
+    }
+
+    // Deletes the files whose state is unknown, so their names can be used again
+    private void settleUnknown() throws IOException {
+        for (String name : new ArrayList<>(unknown)) {
+            connection.send("DELETE " + name); // either answer is fine
+            unknown.remove(name);
+        }
+    }
+
+    private void verify(String name, String response) {
+        String expected = owned.get(name);
+        if (isError(response)) {
+            run.errors.incrementAndGet();
+            run.corruption("READ " + name + ": " + response);
+        } else if (config.soak && !response.equals(expected)) {
+            run.corruption("READ " + name + ": expected " + expected.length() + " byte(s) '"
+                    + abbreviate(expected) + "', got " + response.length() + " byte(s) '" + abbreviate(response) + "'");
+        }
+    }
+
+    // Re-reads every owned file, including the ones the mix has not touched in a while
+    private void sweep() throws IOException {
+        for (String name : new ArrayList<>(owned.keySet())) {
+            verify(name, connection.send("READ " + name));
+        }
+    }
+
+    // Removes this worker's files so the leak check only finds what the server lost track of
+    private void cleanup() {
+        if (!ensureConnected()) return;
+        try {
+            settleUnknown();
+            if (config.soak) {
+                sweep();
+            }
+            for (String name : new ArrayList<>(owned.keySet())) {
+                connection.send("DELETE " + name);
+                owned.remove(name);
+            }
+        } catch (IOException e) {
+            run.connectionFailures.incrementAndGet();
+        }
+    }
+
+    private boolean ensureConnected() {
+        if (connection != null) return true;
+        try {
+            connection = new Connection(config.host, config.port, config.tls);
+            opsOnConnection = 0;
+            return true;
+        } catch (IOException e) {
+            run.connectionFailures.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+
+    private void dropConnection() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    private String unusedName() {
+        for (int k = 0; k < config.filesPerConnection; k++) {
+            String name = run.tag + id + "f" + k;
+            if (!owned.containsKey(name)) return name;
+        }
+        throw new IllegalStateException("No unused filename left");
+    }
+
+    private String anyOwned() {
+        int skip = random.nextInt(owned.size());
+        for (String name : owned.keySet()) {
+            if (skip-- == 0) return name;
+        }
+        throw new IllegalStateException("No owned file");
+    }
+
+    private String payload() {
+        char[] chars = new char[config.payloadSize];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = PAYLOAD_CHARS[random.nextInt(PAYLOAD_CHARS.length)];
+        }
+        return new String(chars);
+    }
+
+    private static boolean isError(String response) {
+        return response.startsWith("ERROR");
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() <= 16 ? s : s.substring(0, 16) + "...";
+    }
+}
@@ -0,0 +1,74 @@
+package ca.concordia.loadtest;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTests {
+
+    private static LatencyHistogram ofMicros(long from, long to) {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long us = from; us <= to; us++) h.record(us * 1000);
+        return h;
+    }
+
+    @Test
+    void testBucketEdges() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(63, LatencyHistogram.bucketOf(63));
+        assertEquals(63, LatencyHistogram.upperBound(63));
+        // first log bucket: 64 and 65 share it
+        assertEquals(64, LatencyHistogram.bucketOf(64));
+        assertEquals(64, LatencyHistogram.bucketOf(65));
+        assertEquals(65, LatencyHistogram.upperBound(64));
+        assertEquals(65, LatencyHistogram.bucketOf(66));
+
+        // buckets are contiguous up to the one holding Long.MAX_VALUE
+        int last = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(last));
+        for (int b = 0; b < last; b++) {
+            long upper = LatencyHistogram.upperBound(b);
+            assertEquals(b, LatencyHistogram.bucketOf(upper), "upper bound of " + b);
+            assertEquals(b + 1, LatencyHistogram.bucketOf(upper + 1), "value after bucket " + b);
+        }
+    }
+
+    @Test
+    void testBucketsAreWithinThreePercent() {
+        for (long us = 64; us < 10_000_000; us = us * 17 / 16 + 1) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.bucketOf(us));
+            assertTrue(upper >= us && upper - us <= us / 32, us + "us reported as " + upper + "us");
+        }
+    }
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram h = ofMicros(1, 1000);
+
+        assertEquals(1000, h.count());
+        assertEquals(500.5, h.meanMicros(), 0.001);
+        assertEquals(1000, h.maxMicros());
+        assertEquals(1, h.percentileMicros(0.0));
+        assertTrue(Math.abs(h.percentileMicros(0.50) - 500) <= 500 / 32, "p50=" + h.percentileMicros(0.50));
+        assertTrue(Math.abs(h.percentileMicros(0.99) - 990) <= 990 / 32, "p99=" + h.percentileMicros(0.99));
+        // never above the largest sample, even though its bucket reaches further
+        assertEquals(1000, h.percentileMicros(1.0));
+        assertEquals(0, new LatencyHistogram().percentileMicros(0.99));
+    }
+
+    @Test
+    void testAddAndCopyAndReset() {
+        LatencyHistogram low = ofMicros(1, 10);
+        LatencyHistogram high = ofMicros(1000, 1009);
+        low.add(high);
+        assertEquals(20, low.count());
+        assertEquals(1009, low.maxMicros());
+        assertEquals(10, low.percentileMicros(0.50));
+
+        LatencyHistogram copy = low.copyAndReset();
+        assertEquals(20, copy.count());
+        assertEquals(0, low.count());
+        assertEquals(0, low.maxMicros());
+        assertEquals(10, copy.percentileMicros(0.50));
+    }
+}